@@ -0,0 +1,82 @@
+package com.buttfa.worldtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Copying and deleting a synthetic world directory with the parallel file workers,
+// the building blocks of COPY snapshots, restores and background collection
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FileBenchmark {
+    @Param({"4", "32"})
+    public int regions;
+
+    private Path root;
+    private Path world;
+    private Path copy;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("worldtree-bench");
+        world = root.resolve("world");
+        copy = root.resolve("copy");
+        WorldFixtures.randomWorld(world, regions, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    // Removes the copy before each copy, untimed
+    @State(Scope.Thread)
+    public static class NoCopy {
+        @Setup(Level.Invocation)
+        public void clean(FileBenchmark benchmark) throws IOException {
+            if (Files.exists(benchmark.copy)) {
+                FileUtils.deleteDirectory(benchmark.copy);
+            }
+        }
+    }
+
+    // Makes a fresh copy before each delete, untimed
+    @State(Scope.Thread)
+    public static class FreshCopy {
+        @Setup(Level.Invocation)
+        public void copy(FileBenchmark benchmark) throws IOException {
+            if (!Files.exists(benchmark.copy)) {
+                FileUtils.copyDirectory(benchmark.world, benchmark.copy);
+            }
+        }
+    }
+
+    @Benchmark
+    public void copyDirectory(NoCopy none) throws IOException {
+        FileUtils.copyDirectory(world, copy);
+    }
+
+    @Benchmark
+    public void deleteDirectory(FreshCopy fresh) throws IOException {
+        FileUtils.deleteDirectory(copy);
+    }
+}
@@ -0,0 +1,104 @@
+package com.buttfa.worldtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The layout and culling passes of WorldTreeScreen: laying out a whole tree when the
+// screen opens, the incremental update when a node deep in it is toggled, and the
+// per-frame viewport query at normal and overview zoom. Text is measured at six
+// pixels per character, close to the game's font, so no client is needed.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayoutBenchmark {
+    private static final int SCREEN_WIDTH = 1920;
+    private static final int SCREEN_HEIGHT = 1080;
+
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    private final TreeLayout layout = new TreeLayout(text -> text.length() * 6);
+    private final TreeViewport viewport = new TreeViewport();
+    private final List<WorldTree.TreeNode> visibleNodes = new ArrayList<>();
+    private final List<WorldTree.TreeNode> visibleEdges = new ArrayList<>();
+    private final List<WorldTree.TreeNode> visibleAggregates = new ArrayList<>();
+    private WorldTree.TreeNode root;
+    private WorldTree.TreeNode deep; // Node with children half way down the deepest chain
+    private int focusX;
+    private int focusY;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        root = TreeFixtures.randomTree(nodes, 42);
+        List<WorldTree.TreeNode> path = new ArrayList<>();
+        for (WorldTree.TreeNode node = root; node != null;
+                node = node.children.isEmpty() ? null : node.children.get(node.children.size() - 1)) {
+            node.expanded = true;
+            path.add(node);
+        }
+        deep = path.get(path.size() / 2);
+        layout.layout(root);
+        TreeLayout.placeRoot(root, 0, 0);
+
+        // Place the path, so the viewport can be centered on the middle of it
+        for (WorldTree.TreeNode node : path.subList(1, path.size() / 2 + 1)) {
+            TreeLayout.place(node);
+        }
+        focusX = deep.getCenterX();
+        focusY = deep.y;
+    }
+
+    @Benchmark
+    public WorldTree.TreeNode layoutTree() {
+        layout.layout(root);
+        return root;
+    }
+
+    @Benchmark
+    public WorldTree.TreeNode toggleDeepNode() {
+        deep.expanded = !deep.expanded;
+        layout.toggled(deep, false);
+        return deep;
+    }
+
+    @Benchmark
+    public int collectVisible() {
+        return collect(1.0f, false);
+    }
+
+    @Benchmark
+    public int collectOverview() {
+        return collect(0.05f, true);
+    }
+
+    private int collect(float zoom, boolean aggregate) {
+        visibleNodes.clear();
+        visibleEdges.clear();
+        visibleAggregates.clear();
+        int width = (int) (SCREEN_WIDTH / zoom);
+        int height = (int) (SCREEN_HEIGHT / zoom);
+        viewport.set(focusX - width / 2, focusY - height / 2, zoom, SCREEN_WIDTH, SCREEN_HEIGHT, false);
+        if (aggregate) {
+            viewport.aggregateBelow(24);
+        }
+        viewport.collect(root, visibleNodes, visibleEdges, visibleAggregates);
+        return visibleNodes.size() + visibleEdges.size() + visibleAggregates.size();
+    }
+}
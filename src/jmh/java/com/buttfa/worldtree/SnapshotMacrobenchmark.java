@@ -0,0 +1,260 @@
+package com.buttfa.worldtree;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// End-to-end snapshot scenarios on a generated world, run with
+// `gradlew snapshotMacrobench -PmacrobenchArgs="--regions=256 --format=DEDUP"`.
+// Every format goes through the same sequence the mod performs while playing: a
+// root snapshot, branches after short play sessions, a switch back to the root
+// (restore plus swap), a branch after the switch, and deleting the branches through
+// the background collector. Each operation reports its wall time, the bytes the
+// process wrote to storage, its peak resident set and the number of files it
+// created, changed or removed. The bytes and the peak are read from /proc and only
+// reported on Linux.
+//
+// Options, as --name=value:
+//   regions   overworld region files, about 6 MB each at the default density (64)
+//   density   share of chunk slots holding a chunk (0.5)
+//   branches  branches taken before the switch (5)
+//   format    COPY, LINK, DEDUP, PACKED or ALL (ALL)
+//   dir       working directory, a temporary one by default; deleted unless --keep
+//   out       JSON results file, written in addition to the table on stdout
+//   generate  only generate the world into dir and exit (false)
+public final class SnapshotMacrobenchmark {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final long SEED = 42;
+
+    private final int regions;
+    private final double density;
+    private final int branches;
+    private final List<Result> results = new ArrayList<>();
+
+    // One measured operation, as written to the results file
+    record Result(String format, String operation, long wallMillis, long bytesWritten, long peakRssKiB,
+            int filesTouched) {
+    }
+
+    private SnapshotMacrobenchmark(int regions, double density, int branches) {
+        this.regions = regions;
+        this.density = density;
+        this.branches = branches;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            int equals = arg.indexOf('=');
+            options.put(equals < 0 ? arg.substring(2) : arg.substring(2, equals),
+                    equals < 0 ? "true" : arg.substring(equals + 1));
+        }
+
+        int regions = Integer.parseInt(options.getOrDefault("regions", "64"));
+        double density = Double.parseDouble(options.getOrDefault("density", "0.5"));
+        int branches = Integer.parseInt(options.getOrDefault("branches", "5"));
+        String format = options.getOrDefault("format", "ALL");
+        boolean keep = Boolean.parseBoolean(options.getOrDefault("keep", "false"));
+        Path dir = options.containsKey("dir")
+                ? Path.of(options.get("dir"))
+                : Files.createTempDirectory("worldtree-macrobench");
+
+        if (Boolean.parseBoolean(options.getOrDefault("generate", "false"))) {
+            WorldFixtures.randomWorld(dir.resolve("world"), regions, density, SEED);
+            System.out.printf("Generated %d MiB in %d files under %s%n", FileUtils.sizeOf(dir) >> 20,
+                    listFiles(dir).size(), dir);
+            return;
+        }
+
+        SnapshotMacrobenchmark benchmark = new SnapshotMacrobenchmark(regions, density, branches);
+        try {
+            for (SnapshotFormat snapshotFormat : SnapshotFormat.values()) {
+                if (format.equals("ALL") || format.equals(snapshotFormat.name())) {
+                    benchmark.run(snapshotFormat, dir.resolve(snapshotFormat.name()));
+                }
+            }
+        } finally {
+            if (!keep && Files.exists(dir)) {
+                FileUtils.deleteDirectory(dir);
+            }
+        }
+
+        benchmark.print();
+        if (options.containsKey("out")) {
+            Path out = Path.of(options.get("out"));
+            Files.createDirectories(out.toAbsolutePath().getParent());
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("regions", regions);
+            report.put("density", density);
+            report.put("branches", branches);
+            report.put("results", benchmark.results);
+            try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+                GSON.toJson(report, writer);
+            }
+            System.out.println("Results written to " + out);
+        }
+    }
+
+    private void run(SnapshotFormat format, Path root) throws Exception {
+        Path world = root.resolve("world");
+        Path treeDir = root.resolve("world-WorldTree");
+        Files.createDirectories(treeDir);
+        measure(format, "generate world", root, () -> WorldFixtures.randomWorld(world, regions, density, SEED));
+
+        WorldTree.TreeNode rootNode = node("root", format, null);
+        measure(format, "capture root", root, () -> capture(world, treeDir, rootNode, null));
+
+        // Branches after play sessions, each reported dirty as the tracker would
+        WorldTree.TreeNode parent = rootNode;
+        List<SnapshotCollector.Tombstone> tombstones = new ArrayList<>();
+        for (int i = 0; i < branches; i++) {
+            Set<String> dirty = WorldFixtures.playSession(world, regions, density, SEED, i);
+            WorldTree.TreeNode branch = node("branch" + i, format, parent);
+            DirtyChunkTracker.Changes changes = new DirtyChunkTracker.Changes(parent.folderName, dirty);
+            measure(format, "branch " + (i + 1), root, () -> capture(world, treeDir, branch, changes));
+            tombstones.add(new SnapshotCollector.Tombstone(branch.folderName, format));
+            parent = branch;
+        }
+
+        // Switch back to the root; the replaced world is deleted in the background
+        Path[] old = new Path[1];
+        measure(format, "switch to root", root, () -> old[0] = WorldSwitch.restore(treeDir, rootNode, world, true,
+                new SnapshotJobs.Progress("switch")));
+        if (old[0] != null) {
+            measure(format, "delete replaced world", root, () -> FileUtils.deleteDirectory(old[0]));
+        }
+
+        // Tracking restarts with the reopened world, so nothing is known to be clean
+        WorldFixtures.playSession(world, regions, density, SEED, branches);
+        WorldTree.TreeNode afterSwitch = node("after-switch", format, rootNode);
+        measure(format, "branch after switch", root, () -> capture(world, treeDir, afterSwitch,
+                new DirtyChunkTracker.Changes(null, Set.of())));
+
+        measure(format, "delete " + branches + " branches", root, () -> {
+            CountDownLatch reclaimed = new CountDownLatch(tombstones.size());
+            SnapshotCollector.collect(treeDir, tombstones, (dir, tombstone) -> reclaimed.countDown());
+            if (!reclaimed.await(1, TimeUnit.HOURS)) {
+                throw new IOException("Collector did not finish");
+            }
+        });
+    }
+
+    private static WorldTree.TreeNode node(String name, SnapshotFormat format, WorldTree.TreeNode parent) {
+        WorldTree.TreeNode node = new WorldTree.TreeNode(name, name);
+        node.folderName = name + "-" + node.timestamp;
+        node.format = format;
+        if (parent != null) {
+            parent.addChild(node);
+        }
+        return node;
+    }
+
+    private static void capture(Path world, Path treeDir, WorldTree.TreeNode node, DirtyChunkTracker.Changes changes)
+            throws IOException {
+        node.format.capture(world, treeDir, node, changes, new SnapshotJobs.Progress("capture"));
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private void measure(SnapshotFormat format, String name, Path root, Operation operation) throws Exception {
+        Map<String, String> before = listFiles(root);
+        resetPeakRss();
+        long written = writtenBytes();
+        long start = System.nanoTime();
+        operation.run();
+        long wall = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long bytes = written < 0 ? -1 : writtenBytes() - written;
+        long peak = peakRssKiB();
+
+        Map<String, String> after = listFiles(root);
+        int touched = 0;
+        for (Map.Entry<String, String> file : after.entrySet()) {
+            if (!file.getValue().equals(before.remove(file.getKey()))) {
+                touched++;
+            }
+        }
+        touched += before.size(); // Removed
+        results.add(new Result(format.name(), name, wall, bytes, peak, touched));
+        System.out.printf("%-7s %-24s %8d ms%n", format, name, wall);
+    }
+
+    private void print() {
+        System.out.printf("%n%-7s %-24s %10s %12s %12s %8s%n", "format", "operation", "wall ms", "written MiB",
+                "peak RSS MiB", "files");
+        for (Result result : results) {
+            System.out.printf("%-7s %-24s %10d %12s %12s %8d%n", result.format(), result.operation(),
+                    result.wallMillis(), mebibytes(result.bytesWritten()), mebibytes(result.peakRssKiB() * 1024),
+                    result.filesTouched());
+        }
+    }
+
+    private static String mebibytes(long bytes) {
+        return bytes < 0 ? "n/a" : String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    // Files under root with their size and modification time
+    private static Map<String, String> listFiles(Path root) throws IOException {
+        Map<String, String> files = new HashMap<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.put(root.relativize(file).toString(), attrs.size() + "@" + attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    // Bytes this process caused to be written to storage, or -1 where unknown
+    private static long writtenBytes() {
+        return procField(Path.of("/proc/self/io"), "write_bytes:");
+    }
+
+    // Peak resident set since the last reset, or -1 where unknown
+    private static long peakRssKiB() {
+        return procField(Path.of("/proc/self/status"), "VmHWM:");
+    }
+
+    // Writing 5 to clear_refs resets VmHWM to the current resident set on Linux
+    private static void resetPeakRss() {
+        try {
+            Files.writeString(Path.of("/proc/self/clear_refs"), "5");
+        } catch (IOException | UnsupportedOperationException e) {
+            // Not Linux or not permitted: the peak covers the whole run so far
+        }
+    }
+
+    private static long procField(Path file, String field) {
+        try {
+            for (String line : Files.readAllLines(file)) {
+                if (line.startsWith(field)) {
+                    return Long.parseLong(line.substring(field.length()).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,70 @@
+package com.buttfa.worldtree;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Synthetic world trees for the benchmarks
+final class TreeFixtures {
+    private TreeFixtures() {
+    }
+
+    // Random tree of the given size, shaped like real ones: mostly long chains of
+    // saves with occasional branches, and the dummy node under the newest save
+    static WorldTree.TreeNode randomTree(int size, long seed) {
+        Random random = new Random(seed);
+        List<WorldTree.TreeNode> nodes = new ArrayList<>(size);
+        WorldTree.TreeNode root = new WorldTree.TreeNode("root", "root");
+        root.folderName = "root-0";
+        nodes.add(root);
+
+        WorldTree.TreeNode last = root;
+        for (int i = 1; i < size; i++) {
+            WorldTree.TreeNode parent = random.nextInt(10) < 8 ? last : nodes.get(random.nextInt(nodes.size()));
+            WorldTree.TreeNode node = new WorldTree.TreeNode(i + "-Save " + i, "Save " + i);
+            parent.addChild(node);
+            node.timestamp = 1_700_000_000_000L + i * 60_000L;
+            node.folderName = node.displayName + "-" + node.timestamp;
+            node.format = SnapshotFormat.DEDUP;
+            node.expanded = random.nextInt(20) != 0;
+            nodes.add(node);
+            last = node;
+        }
+        last.addChild(new WorldTree.TreeNode(WorldTree.DUMMY_NODE_ID, "+ Current"));
+        return root;
+    }
+
+    // Write a tree in the JSON layout used before the binary format
+    static void writeLegacy(WorldTree.TreeNode root, Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("nodes").beginObject();
+            List<WorldTree.TreeNode> stack = new ArrayList<>(List.of(root));
+            while (!stack.isEmpty()) {
+                WorldTree.TreeNode node = stack.remove(stack.size() - 1);
+                writer.name(node.id).beginObject();
+                writer.name("expanded").value(node.expanded);
+                writer.name("timestamp").value(node.timestamp);
+                if (node.folderName != null) {
+                    writer.name("folderName").value(node.folderName);
+                }
+                writer.name("format").value(node.format.name());
+                writer.name("displayName").value(node.displayName);
+                writer.name("parentId").value(node.parent != null ? node.parent.id : "");
+                writer.endObject();
+                stack.addAll(node.children);
+            }
+            writer.endObject();
+            writer.name("trash").beginArray().endArray();
+            writer.endObject();
+        }
+    }
+}
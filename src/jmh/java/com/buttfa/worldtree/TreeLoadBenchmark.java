@@ -0,0 +1,69 @@
+package com.buttfa.worldtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Loading a world tree from the binary snapshot, which leaves collapsed subtrees
+// unread, and from the legacy JSON file.
+// Run with -prof gc (the default in build.gradle) for allocation per load.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeLoadBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    private Path binaryDir;
+    private Path legacyFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        WorldTree.TreeNode root = TreeFixtures.randomTree(nodes, 42);
+        binaryDir = Files.createTempDirectory("worldtree-bench");
+        new TreeStorage(binaryDir).write(root, List.of());
+        legacyFile = binaryDir.resolve(TreeStorage.LEGACY_FILE);
+        TreeFixtures.writeLegacy(root, legacyFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(binaryDir);
+    }
+
+    @Benchmark
+    public Map<String, WorldTree.TreeNode> loadBinary() throws IOException {
+        Map<String, WorldTree.TreeNode> nodeMap = new HashMap<>();
+        new TreeStorage(binaryDir).load(nodeMap, new ArrayList<>());
+        return nodeMap;
+    }
+
+    @Benchmark
+    public Map<String, WorldTree.TreeNode> loadLegacyJson() throws IOException {
+        Map<String, WorldTree.TreeNode> nodeMap = new HashMap<>();
+        TreeStorage.readLegacy(legacyFile, nodeMap, new ArrayList<>());
+        return nodeMap;
+    }
+}
@@ -0,0 +1,72 @@
+package com.buttfa.worldtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Persisting a world tree: a full snapshot, as saveWorldTree and journal compaction
+// write it, and journaling a single new save, as every addSave does.
+// Loading is measured by TreeLoadBenchmark.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeSaveBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    private Path dir;
+    private TreeStorage storage;
+    private WorldTree.TreeNode root;
+    private WorldTree.TreeNode added;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = TreeFixtures.randomTree(nodes, 42);
+        dir = Files.createTempDirectory("worldtree-bench");
+        storage = new TreeStorage(dir);
+        added = new WorldTree.TreeNode("added", "Added");
+        added.folderName = "Added-0";
+        added.format = SnapshotFormat.DEDUP;
+        root.children.get(0).addChild(added);
+    }
+
+    // Start every iteration from a fresh snapshot and an empty journal
+    @Setup(Level.Iteration)
+    public void resetJournal() throws IOException {
+        storage.write(root, List.of());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public void writeSnapshot() throws IOException {
+        storage.write(root, List.of());
+    }
+
+    @Benchmark
+    public void journalAdd() throws IOException {
+        storage.edit().add(added).commit();
+    }
+}
@@ -0,0 +1,137 @@
+package com.buttfa.worldtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.IntPredicate;
+
+// Synthetic singleplayer worlds for the benchmarks. Region files are well-formed
+// Anvil files whose chunk payloads are random bytes, which compress about as badly
+// as the zlib-compressed chunks the game writes; the few small files next to them
+// stand in for level.dat, player data and saved data.
+final class WorldFixtures {
+    private static final int MIN_CHUNK = 2 * 1024;
+    private static final int MAX_CHUNK = 12 * 1024;
+    private static final double DENSITY = 0.5; // Default share of chunk slots holding a chunk
+    private static final List<String> FOLDERS = List.of("region", "entities", "poi");
+
+    private WorldFixtures() {
+    }
+
+    // Write a world with the given number of overworld region files, and smaller
+    // entity and POI region files for the same area; about 6 MB per region
+    static void randomWorld(Path dir, int regions, long seed) throws IOException {
+        randomWorld(dir, regions, DENSITY, seed);
+    }
+
+    // Write a world laid out like the game's: overworld regions with their entity
+    // and POI files, a quarter as many in the Nether and an eighth in the End, and
+    // the level, player and saved data files. density is the share of the 1024 chunk
+    // slots of every region file that hold a chunk.
+    static void randomWorld(Path dir, int regions, double density, long seed) throws IOException {
+        writeDimension(dir, regions, density, seed);
+        // Seeds far apart, so no two region files share chunks
+        writeDimension(dir.resolve("DIM-1"), regions / 4, density, seed * 7919 + 1);
+        writeDimension(dir.resolve("DIM1"), regions / 8, density, seed * 7919 + 2);
+
+        Random random = new Random(seed);
+        writeRandom(dir.resolve("level.dat"), 4 * 1024, random);
+        writeRandom(dir.resolve("level.dat_old"), 4 * 1024, random);
+        writeRandom(dir.resolve("session.lock"), 3, random);
+        String player = new UUID(seed, 1).toString();
+        for (String folder : List.of("playerdata", "advancements", "stats")) {
+            Files.createDirectories(dir.resolve(folder));
+        }
+        writeRandom(dir.resolve("playerdata").resolve(player + ".dat"), 8 * 1024, random);
+        writeRandom(dir.resolve("advancements").resolve(player + ".json"), 6 * 1024, random);
+        writeRandom(dir.resolve("stats").resolve(player + ".json"), 3 * 1024, random);
+        Files.createDirectories(dir.resolve("data"));
+        for (String name : List.of("raids", "scoreboard", "random_sequences", "chunks")) {
+            writeRandom(dir.resolve("data").resolve(name + ".dat"), 1024 + random.nextInt(16 * 1024), random);
+        }
+    }
+
+    // Rewrite a tenth of the chunks in the first few regions, as a short play session
+    // would, and return the region files touched as DirtyChunkTracker names them
+    static Set<String> playSession(Path dir, int regions, long seed) throws IOException {
+        return playSession(dir, regions, DENSITY, seed, 0);
+    }
+
+    // Play session number session of a world written by randomWorld: rewrites a tenth
+    // of the chunks in two overworld regions, a different pair each session
+    static Set<String> playSession(Path dir, int regions, double density, long seed, int session)
+            throws IOException {
+        Set<String> touched = new HashSet<>();
+        for (int i = 0; i < Math.min(regions, 2); i++) {
+            int r = (session * 2 + i) % regions;
+            IntPredicate changed = slot -> slot % 10 == session % 10;
+            writeRegion(dir.resolve("region").resolve(regionName(r)), seed + r, MAX_CHUNK, density, changed,
+                    session + 1);
+            writeRegion(dir.resolve("entities").resolve(regionName(r)), seed * 17 - r, MIN_CHUNK, density, changed,
+                    session + 1);
+            for (String folder : FOLDERS) {
+                touched.add(folder + "/" + regionName(r));
+            }
+        }
+        writeRandom(dir.resolve("level.dat"), 4 * 1024, new Random(seed + session + 1));
+        return touched;
+    }
+
+    private static void writeDimension(Path dir, int regions, double density, long seed) throws IOException {
+        for (String folder : FOLDERS) {
+            Files.createDirectories(dir.resolve(folder));
+        }
+        IntPredicate unchanged = slot -> false;
+        for (int r = 0; r < regions; r++) {
+            writeRegion(dir.resolve("region").resolve(regionName(r)), seed + r, MAX_CHUNK, density, unchanged, 0);
+            writeRegion(dir.resolve("entities").resolve(regionName(r)), seed * 17 - r, MIN_CHUNK, density,
+                    unchanged, 0);
+            writeRegion(dir.resolve("poi").resolve(regionName(r)), seed * 31 + r, MIN_CHUNK / 4, density,
+                    unchanged, 0);
+        }
+    }
+
+    // Chunk contents depend on the seed and slot only, so a rewrite with changed
+    // slots keeps every other chunk byte for byte
+    private static void writeRegion(Path file, long seed, int maxChunk, double density, IntPredicate changed,
+            int version) throws IOException {
+        int[] timestamps = new int[AnvilRegion.CHUNK_COUNT];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = isFilled(seed, i, density) ? 1_700_000_000 + (changed.test(i) ? version : 0) : 0;
+        }
+        AnvilRegion.write(file, timestamps, slot -> {
+            if (timestamps[slot] == 0) {
+                return null;
+            }
+            Random random = new Random(seed * 1024 + slot + (changed.test(slot) ? version * 0x5DEECE66DL : 0));
+            byte[] payload = new byte[Math.min(MIN_CHUNK, maxChunk) + random.nextInt(maxChunk)];
+            random.nextBytes(payload);
+            // Length of what follows the prefix, then zlib compression
+            ByteBuffer.wrap(payload).putInt(payload.length - 4);
+            payload[4] = 2;
+            return payload;
+        });
+    }
+
+    // Whether a chunk slot holds a chunk; the same for every rewrite of the file
+    private static boolean isFilled(long seed, int slot, double density) {
+        return new Random(seed * 1024 + slot).nextDouble() < density;
+    }
+
+    private static void writeRandom(Path file, int size, Random random) throws IOException {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        Files.write(file, data);
+    }
+
+    private static String regionName(int index) {
+        // Lay the regions out in rows of eight around the origin
+        return "r." + (index % 8 - 4) + "." + (index / 8 - 4) + ".mca";
+    }
+}
@@ -0,0 +1,193 @@
+package com.buttfa.worldtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
+
+// Minimal reader/writer for Anvil region files (r.<x>.<z>.mca), so snapshots can
+// store them chunk by chunk instead of as opaque multi-megabyte files
+final class AnvilRegion {
+    static final int SECTOR_SIZE = 4096;
+    static final int CHUNK_COUNT = 1024;
+    static final int HEADER_SIZE = SECTOR_SIZE * 2;
+
+    private static final Pattern NAME = Pattern.compile("r\\.-?\\d+\\.-?\\d+\\.mca");
+    private static final int INDEX_MAGIC_V1 = 0x57545249; // "WTRI", without payload fingerprints
+    private static final int INDEX_MAGIC = 0x57545232; // "WTR2"
+    private static final int HASH_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE_V1 = 4 + 4 + HASH_SIZE;
+    private static final int INDEX_ENTRY_SIZE = 4 + 4 + 8 + HASH_SIZE;
+
+    private AnvilRegion() {
+    }
+
+    static boolean isRegionFile(Path file) {
+        return NAME.matcher(file.getFileName().toString()).matches();
+    }
+
+    // A region file whose layout is invalid, as opposed to one that could not be read
+    static final class MalformedRegionException extends IOException {
+        MalformedRegionException(String message) {
+            super(message);
+        }
+    }
+
+    // Location table and timestamps from the first two sectors of a region file
+    static final class Header {
+        final int[] offsets = new int[CHUNK_COUNT]; // First sector of each chunk, 0 if absent
+        final int[] sectors = new int[CHUNK_COUNT]; // Sectors allocated to each chunk
+        final int[] timestamps = new int[CHUNK_COUNT];
+    }
+
+    static Header readHeader(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            throw new MalformedRegionException("Region file too small: " + size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, buffer, 0);
+        buffer.flip();
+
+        Header header = new Header();
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            int location = buffer.getInt(i * 4);
+            int offset = location >>> 8;
+            int sectors = location & 0xFF;
+            if (offset != 0 && (offset < 2 || (long) (offset + sectors) * SECTOR_SIZE > size)) {
+                throw new MalformedRegionException("Chunk " + i + " points outside the region file");
+            }
+            header.offsets[i] = offset;
+            header.sectors[i] = sectors;
+            header.timestamps[i] = buffer.getInt(SECTOR_SIZE + i * 4);
+        }
+        return header;
+    }
+
+    // Length of the stored chunk payload (length prefix included), 0 if the slot is empty
+    static int payloadLength(FileChannel channel, Header header, int index) throws IOException {
+        if (header.offsets[index] == 0 || header.sectors[index] == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        readFully(channel, buffer, (long) header.offsets[index] * SECTOR_SIZE);
+        int length = buffer.getInt(0);
+        if (length <= 0 || 4L + length > (long) header.sectors[index] * SECTOR_SIZE) {
+            throw new MalformedRegionException("Chunk " + index + " has an invalid length " + length);
+        }
+        return 4 + length;
+    }
+
+    // Read a chunk payload without the sector padding
+    static byte[] readPayload(FileChannel channel, Header header, int index, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, (long) header.offsets[index] * SECTOR_SIZE);
+        return buffer.array();
+    }
+
+    // Per-chunk index of a region file as kept in the snapshot store
+    static final class Index {
+        final int[] timestamps = new int[CHUNK_COUNT];
+        final int[] lengths = new int[CHUNK_COUNT]; // Payload lengths, 0 for empty slots
+        final long[] fingerprints = new long[CHUNK_COUNT]; // XXH64 of each payload
+        final String[] chunks = new String[CHUNK_COUNT]; // Blob hash of each payload
+        boolean fingerprinted = true; // False for indexes written before fingerprints were kept
+
+        byte[] toBytes() {
+            ByteBuffer buffer = ByteBuffer.allocate(4 + CHUNK_COUNT * INDEX_ENTRY_SIZE);
+            buffer.putInt(INDEX_MAGIC);
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                buffer.putInt(timestamps[i]).putInt(lengths[i]).putLong(fingerprints[i]);
+                if (chunks[i] != null) {
+                    buffer.put(fromHex(chunks[i]));
+                } else {
+                    buffer.position(buffer.position() + HASH_SIZE);
+                }
+            }
+            return buffer.array();
+        }
+
+        static Index fromBytes(byte[] bytes) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int magic = bytes.length >= 4 ? buffer.getInt() : 0;
+            boolean fingerprinted = magic == INDEX_MAGIC;
+            int entrySize = fingerprinted ? INDEX_ENTRY_SIZE : INDEX_ENTRY_SIZE_V1;
+            if ((!fingerprinted && magic != INDEX_MAGIC_V1) || bytes.length != 4 + CHUNK_COUNT * entrySize) {
+                throw new IOException("Not a region index");
+            }
+            Index index = new Index();
+            index.fingerprinted = fingerprinted;
+            byte[] hash = new byte[HASH_SIZE];
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                index.timestamps[i] = buffer.getInt();
+                index.lengths[i] = buffer.getInt();
+                if (fingerprinted) {
+                    index.fingerprints[i] = buffer.getLong();
+                }
+                buffer.get(hash);
+                if (index.lengths[i] != 0) {
+                    index.chunks[i] = SnapshotStore.toHex(hash);
+                }
+            }
+            return index;
+        }
+    }
+
+    // Supplies the payload of each chunk slot when rebuilding a region file
+    interface PayloadSource {
+        // Payload with its length prefix, or null for an empty slot
+        byte[] read(int index) throws IOException;
+    }
+
+    // Write a region file with the chunks packed back to back on sector boundaries
+    static void write(Path target, int[] timestamps, PayloadSource source) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            int nextSector = 2;
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                header.putInt(SECTOR_SIZE + i * 4, timestamps[i]);
+                byte[] payload = source.read(i);
+                if (payload == null) {
+                    continue;
+                }
+                int sectors = (payload.length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+                header.putInt(i * 4, nextSector << 8 | sectors);
+                writeFully(channel, ByteBuffer.wrap(payload), (long) nextSector * SECTOR_SIZE);
+                nextSector += sectors;
+            }
+            writeFully(channel, header, 0);
+
+            // Pad the last chunk to a whole sector like the game does
+            long end = (long) nextSector * SECTOR_SIZE;
+            if (channel.size() < end) {
+                writeFully(channel, ByteBuffer.allocate(1), end - 1);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new MalformedRegionException("Unexpected end of region file");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex, i * 2, i * 2 + 2, 16);
+        }
+        return bytes;
+    }
+}
@@ -35,12 +35,81 @@ public class Config {
             .comment("A list of items to log on common setup.")
             .defineListAllowEmpty("items", List.of("minecraft:iron_ingot"), Config::validateItemName);
 
+    private static final ForgeConfigSpec.EnumValue<SnapshotFormat> SNAPSHOT_FORMAT = BUILDER
+            .comment("How new world tree nodes store their world.",
+                    "COPY keeps a full directory copy per node, DEDUP shares identical files between nodes,",
+                    "LINK hard links files unchanged since the parent node and reflinks the rest where supported,",
+                    "PACKED writes one compressed archive per node")
+            .defineEnum("snapshotFormat", SnapshotFormat.COPY);
+
+    private static final ForgeConfigSpec.IntValue COPY_THREADS = BUILDER
+            .comment("Worker threads used to copy and hash world files, 0 picks a value for the storage device")
+            .defineInRange("copyThreads", 0, 0, 64);
+
+    private static final ForgeConfigSpec.IntValue DIRECT_IO_THRESHOLD_MB = BUILDER
+            .comment("Copy files at least this many MiB with O_DIRECT, bypassing the page cache; 0 disables it")
+            .defineInRange("directIoThresholdMB", 0, 0, 1 << 20);
+
+    private static final ForgeConfigSpec.BooleanValue CURVED_CONNECTORS = BUILDER
+            .comment("Draw the lines between world tree nodes as curves instead of straight lines")
+            .define("curvedConnectors", false);
+
+    private static final ForgeConfigSpec.BooleanValue AUTO_SNAPSHOTS = BUILDER
+            .comment("Take world tree snapshots automatically, on the triggers below")
+            .define("autoSnapshots", false);
+
+    private static final ForgeConfigSpec.IntValue AUTO_SNAPSHOT_INTERVAL_MINUTES = BUILDER
+            .comment("Minutes of play between automatic snapshots, 0 disables the interval")
+            .defineInRange("autoSnapshotIntervalMinutes", 30, 0, 7 * 24 * 60);
+
+    private static final ForgeConfigSpec.BooleanValue AUTO_SNAPSHOT_ON_DIMENSION_CHANGE = BUILDER
+            .comment("Take an automatic snapshot when the player changes dimension")
+            .define("autoSnapshotOnDimensionChange", true);
+
+    private static final ForgeConfigSpec.BooleanValue AUTO_SNAPSHOT_ON_BOSS_KILL = BUILDER
+            .comment("Take an automatic snapshot when a boss is killed")
+            .define("autoSnapshotOnBossKill", true);
+
+    private static final ForgeConfigSpec.IntValue AUTO_SNAPSHOT_CHUNKS = BUILDER
+            .comment("Take an automatic snapshot after this many chunk saves, 0 disables it")
+            .defineInRange("autoSnapshotChunks", 0, 0, Integer.MAX_VALUE);
+
+    private static final ForgeConfigSpec.IntValue AUTO_SNAPSHOT_MIN_SPACING_MINUTES = BUILDER
+            .comment("Minutes of play that must pass between two automatic snapshots, whatever triggers them")
+            .defineInRange("autoSnapshotMinSpacingMinutes", 5, 0, 24 * 60);
+
+    private static final ForgeConfigSpec.IntValue KEEP_HOURLY_AUTO_SNAPSHOTS_HOURS = BUILDER
+            .comment("Automatic snapshots older than an hour are thinned to one per hour for this many hours")
+            .defineInRange("keepHourlyAutoSnapshotsHours", 24, 1, 24 * 365);
+
+    private static final ForgeConfigSpec.IntValue KEEP_DAILY_AUTO_SNAPSHOTS_DAYS = BUILDER
+            .comment("After that, to one per day for this many days, and older ones are removed")
+            .defineInRange("keepDailyAutoSnapshotsDays", 30, 1, 3650);
+
+    private static final ForgeConfigSpec.BooleanValue SHOW_SNAPSHOT_METRICS = BUILDER
+            .comment("Show how long the phases of snapshot work took on the world tree screen",
+                    "The same timings are recorded as JFR events in the World Tree category")
+            .define("showSnapshotMetrics", false);
+
     static final ForgeConfigSpec SPEC = BUILDER.build();
 
     public static boolean logDirtBlock;
     public static int magicNumber;
     public static String magicNumberIntroduction;
     public static Set<Item> items;
+    public static SnapshotFormat snapshotFormat = SnapshotFormat.COPY;
+    public static int copyThreads;
+    public static int directIoThresholdMB;
+    public static boolean curvedConnectors;
+    public static boolean autoSnapshots;
+    public static int autoSnapshotIntervalMinutes;
+    public static boolean autoSnapshotOnDimensionChange;
+    public static boolean autoSnapshotOnBossKill;
+    public static int autoSnapshotChunks;
+    public static int autoSnapshotMinSpacingMinutes;
+    public static int keepHourlyAutoSnapshotsHours;
+    public static int keepDailyAutoSnapshotsDays;
+    public static boolean showSnapshotMetrics;
 
     private static boolean validateItemName(final Object obj) {
         return obj instanceof final String itemName
@@ -52,6 +121,19 @@ public class Config {
         logDirtBlock = LOG_DIRT_BLOCK.get();
         magicNumber = MAGIC_NUMBER.get();
         magicNumberIntroduction = MAGIC_NUMBER_INTRODUCTION.get();
+        snapshotFormat = SNAPSHOT_FORMAT.get();
+        copyThreads = COPY_THREADS.get();
+        directIoThresholdMB = DIRECT_IO_THRESHOLD_MB.get();
+        curvedConnectors = CURVED_CONNECTORS.get();
+        autoSnapshots = AUTO_SNAPSHOTS.get();
+        autoSnapshotIntervalMinutes = AUTO_SNAPSHOT_INTERVAL_MINUTES.get();
+        autoSnapshotOnDimensionChange = AUTO_SNAPSHOT_ON_DIMENSION_CHANGE.get();
+        autoSnapshotOnBossKill = AUTO_SNAPSHOT_ON_BOSS_KILL.get();
+        autoSnapshotChunks = AUTO_SNAPSHOT_CHUNKS.get();
+        autoSnapshotMinSpacingMinutes = AUTO_SNAPSHOT_MIN_SPACING_MINUTES.get();
+        keepHourlyAutoSnapshotsHours = KEEP_HOURLY_AUTO_SNAPSHOTS_HOURS.get();
+        keepDailyAutoSnapshotsDays = KEEP_DAILY_AUTO_SNAPSHOTS_DAYS.get();
+        showSnapshotMetrics = SHOW_SNAPSHOT_METRICS.get();
 
         // convert the list of strings into a set of items
         items = ITEM_STRINGS.get().stream()
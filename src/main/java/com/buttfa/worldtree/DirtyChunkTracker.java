@@ -0,0 +1,135 @@
+package com.buttfa.worldtree;
+
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.dimension.DimensionType;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.event.level.ChunkDataEvent;
+import net.minecraftforge.event.level.ChunkEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Tracks which region files the integrated server may have written since the last
+// snapshot, so the next one only has to look at those (see SnapshotStore.capture).
+// The game only writes a chunk's block, entity and POI data while the chunk is
+// loaded or being saved, so every region holding a chunk that was loaded or saved
+// since a snapshot's flush is dirty, and every other region file is still exactly
+// as that snapshot captured it. This over-approximates, which is safe: a dirty
+// region is merely scanned as before.
+// Tracking restarts with every server, so the first snapshot after opening a world
+// always scans it in full.
+@Mod.EventBusSubscriber(modid = WorldTree.MODID, bus = Mod.EventBusSubscriber.Bus.FORGE, value = Dist.CLIENT)
+final class DirtyChunkTracker {
+    // Storage folders with one region file per 32x32 chunks
+    private static final List<String> REGION_FOLDERS = List.of("region", "entities", "poi");
+
+    // Guarded by the class lock; the events and takeChanges run on the server thread
+    // almost always, so the lock is uncontended
+    private static final Map<Region, Integer> loaded = new HashMap<>(); // Loaded chunks per region
+    private static final Set<Region> touched = new HashSet<>(); // Loaded or saved since the last flush
+    private static String base; // Snapshot the touched regions are relative to, null if unknown
+    private static final Map<ResourceKey<Level>, String> folders = new HashMap<>();
+
+    private record Region(String folder, int x, int z) {
+    }
+
+    // Region files that may differ from the base snapshot, as world-relative names
+    record Changes(String base, Set<String> dirty) {
+        // Whether the file is a tracked region file that is unchanged since base
+        boolean isClean(String name) {
+            int file = name.lastIndexOf('/');
+            if (file < 0 || dirty.contains(name)) {
+                return false;
+            }
+            int folder = name.lastIndexOf('/', file - 1);
+            return REGION_FOLDERS.contains(name.substring(folder + 1, file));
+        }
+    }
+
+    private DirtyChunkTracker() {
+    }
+
+    @SubscribeEvent
+    public static void onChunkLoad(ChunkEvent.Load event) {
+        if (event.getLevel() instanceof ServerLevel level) {
+            Region region = region(level, event.getChunk().getPos());
+            synchronized (DirtyChunkTracker.class) {
+                loaded.merge(region, 1, Integer::sum);
+                touched.add(region);
+            }
+        }
+    }
+
+    @SubscribeEvent
+    public static void onChunkUnload(ChunkEvent.Unload event) {
+        if (event.getLevel() instanceof ServerLevel level) {
+            // Still touched: the chunk is saved after it has been unloaded
+            Region region = region(level, event.getChunk().getPos());
+            synchronized (DirtyChunkTracker.class) {
+                loaded.computeIfPresent(region, (key, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+
+    // Covers chunks saved without a load event, such as chunks still being generated
+    @SubscribeEvent
+    public static void onChunkSave(ChunkDataEvent.Save event) {
+        if (event.getLevel() instanceof ServerLevel level) {
+            Region region = region(level, event.getChunk().getPos());
+            synchronized (DirtyChunkTracker.class) {
+                touched.add(region);
+            }
+        }
+    }
+
+    @SubscribeEvent
+    public static synchronized void onServerStopped(ServerStoppedEvent event) {
+        loaded.clear();
+        touched.clear();
+        base = null;
+        folders.clear();
+    }
+
+    // Called on the server thread right after the chunks were flushed for the
+    // snapshot key: returns the regions changed since the previous snapshot, and
+    // starts tracking the changes since this one. The previous snapshot may not have
+    // completed, so the result only applies to a capture whose parent is its base.
+    static synchronized Changes takeChanges(String key) {
+        Set<String> dirty = new HashSet<>();
+        for (Region region : touched) {
+            String file = "r." + region.x() + "." + region.z() + ".mca";
+            for (String folder : REGION_FOLDERS) {
+                dirty.add(region.folder() + folder + "/" + file);
+            }
+        }
+        Changes changes = new Changes(base, dirty);
+
+        // Chunks still loaded may be written again at any time
+        touched.clear();
+        touched.addAll(loaded.keySet());
+        base = key;
+        return changes;
+    }
+
+    private static Region region(ServerLevel level, ChunkPos pos) {
+        return new Region(folder(level.dimension()), pos.getRegionX(), pos.getRegionZ());
+    }
+
+    // World-relative prefix of a dimension's storage folders, such as "DIM-1/"
+    private static synchronized String folder(ResourceKey<Level> dimension) {
+        return folders.computeIfAbsent(dimension, key -> {
+            String folder = DimensionType.getStorageFolder(key, Path.of("")).toString().replace('\\', '/');
+            return folder.isEmpty() ? "" : folder + "/";
+        });
+    }
+}
@@ -0,0 +1,140 @@
+package com.buttfa.worldtree;
+
+import com.mojang.blaze3d.vertex.VertexConsumer;
+import net.minecraft.client.gui.GuiGraphics;
+import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.client.renderer.RenderType;
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Collects the connection lines of a frame and draws them as one batch of quads.
+// Each line is a strip with a solid core and a feather on either side whose alpha
+// fades to zero; the GPU's color interpolation across the feather anti-aliases it.
+// Curves are cubic Beziers flattened into a few segments of the same strip.
+final class EdgeBatch {
+    private static final float CORE = 0.5f; // Half width of the solid core in pixels
+    private static final float FEATHER = 1.0f; // Width of the fading edge in pixels
+    private static final int CORE_ALPHA = 0xBF; // 75% opacity
+    private static final float CURVE_STEP = 8.0f; // Pixels of curve per segment
+    private static final int MAX_CURVE_SEGMENTS = 24;
+
+    // Polylines stored back to back: points as x,y pairs, with start and color per line
+    private float[] points = new float[256];
+    private int pointCount;
+    private int[] starts = new int[32];
+    private int[] colors = new int[32];
+    private int lineCount;
+
+    // Created once rather than per frame; the pose is set by draw
+    private Matrix4f pose;
+    private final Consumer<MultiBufferSource> emitter = this::emitAll;
+
+    void clear() {
+        pointCount = 0;
+        lineCount = 0;
+    }
+
+    void line(float x1, float y1, float x2, float y2, int color) {
+        begin(color);
+        point(x1, y1);
+        point(x2, y2);
+    }
+
+    // S-shaped connector leaving and entering vertically
+    void curve(float x1, float y1, float x2, float y2, int color) {
+        float midY = (y1 + y2) / 2;
+        float length = Math.abs(x2 - x1) + Math.abs(y2 - y1);
+        int segments = Math.max(2, Math.min(MAX_CURVE_SEGMENTS, (int) (length / CURVE_STEP)));
+        begin(color);
+        for (int i = 0; i <= segments; i++) {
+            float t = (float) i / segments;
+            float u = 1 - t;
+            // Control points (x1, midY) and (x2, midY)
+            float b1 = 3 * u * u * t;
+            float b2 = 3 * u * t * t;
+            float b3 = t * t * t;
+            point(u * u * u * x1 + b1 * x1 + b2 * x2 + b3 * x2,
+                    u * u * u * y1 + (b1 + b2) * midY + b3 * y2);
+        }
+    }
+
+    // Emit every collected line into the GUI buffer in a single batch
+    void draw(GuiGraphics guiGraphics) {
+        if (lineCount == 0) {
+            return;
+        }
+        pose = guiGraphics.pose().last().pose();
+        guiGraphics.drawSpecial(emitter);
+    }
+
+    private void emitAll(MultiBufferSource buffers) {
+        VertexConsumer buffer = buffers.getBuffer(RenderType.gui());
+        for (int line = 0; line < lineCount; line++) {
+            int end = line + 1 < lineCount ? starts[line + 1] : pointCount;
+            emit(buffer, pose, starts[line], end, colors[line]);
+        }
+    }
+
+    private void emit(VertexConsumer buffer, Matrix4f pose, int start, int end, int color) {
+        int solid = (color & 0x00FFFFFF) | CORE_ALPHA << 24;
+        int clear = color & 0x00FFFFFF;
+        boolean first = true;
+        float px = 0, py = 0, pnx = 0, pny = 0;
+        for (int i = start; i < end; i++) {
+            // Offset each point along the normal of its neighbouring segments, so
+            // consecutive quads share their edges
+            int from = Math.max(start, i - 1);
+            int to = Math.min(end - 1, i + 1);
+            float dx = points[to * 2] - points[from * 2];
+            float dy = points[to * 2 + 1] - points[from * 2 + 1];
+            float length = (float) Math.sqrt(dx * dx + dy * dy);
+            if (length < 1e-4f) {
+                continue;
+            }
+            float x = points[i * 2];
+            float y = points[i * 2 + 1];
+            float nx = -dy / length;
+            float ny = dx / length;
+            if (!first) {
+                quad(buffer, pose, px, py, pnx, pny, x, y, nx, ny, CORE + FEATHER, CORE, clear, solid);
+                quad(buffer, pose, px, py, pnx, pny, x, y, nx, ny, CORE, -CORE, solid, solid);
+                quad(buffer, pose, px, py, pnx, pny, x, y, nx, ny, -CORE, -CORE - FEATHER, solid, clear);
+            }
+            first = false;
+            px = x;
+            py = y;
+            pnx = nx;
+            pny = ny;
+        }
+    }
+
+    // Quad between strip points a and b, spanning offsets outer to inner along their normals
+    private static void quad(VertexConsumer buffer, Matrix4f pose, float ax, float ay, float anx, float any,
+            float bx, float by, float bnx, float bny, float outer, float inner, int outerColor, int innerColor) {
+        buffer.addVertex(pose, ax + anx * outer, ay + any * outer, 0).setColor(outerColor);
+        buffer.addVertex(pose, ax + anx * inner, ay + any * inner, 0).setColor(innerColor);
+        buffer.addVertex(pose, bx + bnx * inner, by + bny * inner, 0).setColor(innerColor);
+        buffer.addVertex(pose, bx + bnx * outer, by + bny * outer, 0).setColor(outerColor);
+    }
+
+    private void begin(int color) {
+        if (lineCount == starts.length) {
+            starts = Arrays.copyOf(starts, lineCount * 2);
+            colors = Arrays.copyOf(colors, lineCount * 2);
+        }
+        starts[lineCount] = pointCount;
+        colors[lineCount] = color;
+        lineCount++;
+    }
+
+    private void point(float x, float y) {
+        if (pointCount * 2 + 2 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[pointCount * 2] = x;
+        points[pointCount * 2 + 1] = y;
+        pointCount++;
+    }
+}
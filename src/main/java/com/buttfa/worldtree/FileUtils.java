@@ -1,38 +1,545 @@
 package com.buttfa.worldtree;
 
+import com.mojang.logging.LogUtils;
+import com.sun.nio.file.ExtendedOpenOption;
+import org.slf4j.Logger;
+
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 
 // File operation utility class
 public class FileUtils {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int TRANSFER_CHUNK = 8 << 20; // Bytes per transfer call, a multiple of any block size
+    private static final long LARGE_FILE_SIZE = 16L << 20; // Files above this are split between workers
+    private static final long PART_SIZE = 8L << 20; // Size of each part of a split file
+    private static final long BATCH_BYTES = 4L << 20; // Small files are grouped up to this many bytes
+    private static final int BATCH_FILES = 64; // ... or this many files
+    private static final int REFLINK_BATCH = 256; // Files cloned per cp invocation
+
+    // Worker threads are reused between copies; each copy limits how many it uses
+    private static final ExecutorService POOL = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "WorldTree-IO");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Map<String, Integer> DEVICE_WORKERS = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> REFLINK_SUPPORT = new ConcurrentHashMap<>();
+
+    // A unit of file work that may fail with an IOException
+    @FunctionalInterface
+    public interface IOTask {
+        void run() throws IOException;
+    }
+
     // Recursively copy a directory
     public static void copyDirectory(Path source, Path target) throws IOException {
+        copyDirectory(source, target, bytes -> {
+        });
+    }
+
+    // Recursively copy a directory, reporting the size of every copied file or part
+    public static void copyDirectory(Path source, Path target, LongConsumer progress) throws IOException {
+        Listing listing = list(source, target);
+        copyFiles(source, target, listing.files, listing.sizes, progress);
+    }
+
+    // Snapshot a directory as cheaply as the filesystem allows. Files whose size and
+    // modification time match their copy under base are hard linked to it, the rest
+    // are reflinked where supported and copied otherwise. Targets keep the source
+    // modification times so the next snapshot can compare against them. Hard links
+    // share data with base, so the result must never be opened as a live world.
+    public static void linkDirectory(Path source, Path target, Path base, LongConsumer progress) throws IOException {
+        linkDirectory(source, target, base, name -> true, progress);
+    }
+
+    private static void linkDirectory(Path source, Path target, Path base, Predicate<String> include,
+            LongConsumer progress) throws IOException {
+        Listing listing = list(source, target);
+        List<Path> files = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        List<FileTime> times = new ArrayList<>();
+        for (int i = 0; i < listing.files.size(); i++) {
+            Path file = listing.files.get(i);
+            Path relative = source.relativize(file);
+            if (!include.test(relative.toString().replace('\\', '/'))) {
+                continue;
+            }
+            if (base != null && tryLink(file, base.resolve(relative), target.resolve(relative))) {
+                progress.accept(listing.sizes.get(i));
+                continue;
+            }
+            files.add(file);
+            sizes.add(listing.sizes.get(i));
+            times.add(Files.getLastModifiedTime(file));
+        }
+
+        if (!reflinkFiles(source, target, files, sizes, progress)) {
+            copyFiles(source, target, files, sizes, progress);
+        }
+        for (int i = 0; i < files.size(); i++) {
+            Files.setLastModifiedTime(target.resolve(source.relativize(files.get(i))), times.get(i));
+        }
+    }
+
+    // Copy a directory with reflinks where supported, keeping modification times.
+    // Unlike linkDirectory the result shares no writable data with the source.
+    public static void cloneDirectory(Path source, Path target, LongConsumer progress) throws IOException {
+        linkDirectory(source, target, null, progress);
+    }
+
+    // Clone only the files whose '/' separated names relative to source include
+    // accepts; the whole directory tree is still recreated
+    public static void cloneDirectory(Path source, Path target, Predicate<String> include, LongConsumer progress)
+            throws IOException {
+        linkDirectory(source, target, null, include, progress);
+    }
+
+    // Files and their sizes under a directory whose tree has been recreated in target
+    private record Listing(List<Path> files, List<Long> sizes) {
+    }
+
+    private static Listing list(Path source, Path target) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
         Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
             @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                Path relative = source.relativize(dir);
-                Path dest = target.resolve(relative);
-                Files.createDirectories(dest);
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                dirs.add(dir);
                 return FileVisitResult.CONTINUE;
             }
 
             @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                Path relative = source.relativize(file);
-                Path dest = target.resolve(relative);
-                Files.copy(file, dest, StandardCopyOption.REPLACE_EXISTING);
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                sizes.add(attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        for (Path dir : dirs) {
+            Files.createDirectories(target.resolve(source.relativize(dir)));
+        }
+        return new Listing(files, sizes);
+    }
+
+    // Copy the given files with the worker pool into existing target directories.
+    // Large files are split into parts and small files batched.
+    private static void copyFiles(Path source, Path target, List<Path> files, List<Long> sizes,
+            LongConsumer progress) throws IOException {
+        long start = System.nanoTime();
+        long totalBytes = 0;
+        long directThreshold = (long) Config.directIoThresholdMB << 20;
+        List<Path> directFiles = new ArrayList<>();
+        List<Long> directSizes = new ArrayList<>();
+        List<IOTask> tasks = new ArrayList<>();
+        List<Path> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            Path dest = target.resolve(source.relativize(file));
+            long size = sizes.get(i);
+            totalBytes += size;
+
+            if (size > LARGE_FILE_SIZE) {
+                // Size the target once so every part can be written in place
+                try (RandomAccessFile out = new RandomAccessFile(dest.toFile(), "rw")) {
+                    out.setLength(size);
+                }
+                boolean direct = directThreshold > 0 && size >= directThreshold;
+                if (direct) {
+                    directFiles.add(dest);
+                    directSizes.add(size);
+                }
+                for (long position = 0; position < size; position += PART_SIZE) {
+                    long partStart = position;
+                    long length = Math.min(PART_SIZE, size - position);
+                    tasks.add(() -> {
+                        copyRange(file, dest, partStart, length, direct);
+                        progress.accept(length);
+                    });
+                }
+                continue;
+            }
+
+            batch.add(file);
+            batchBytes += size;
+            if (batch.size() >= BATCH_FILES || batchBytes >= BATCH_BYTES) {
+                tasks.add(copyBatch(batch, source, target, batchBytes, progress));
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            tasks.add(copyBatch(batch, source, target, batchBytes, progress));
+        }
+
+        runParallel(target, tasks);
+
+        // Direct I/O writes whole blocks, so trim the padding after the last one
+        for (int i = 0; i < directFiles.size(); i++) {
+            try (FileChannel out = FileChannel.open(directFiles.get(i), StandardOpenOption.WRITE)) {
+                out.truncate(directSizes.get(i));
+            }
+        }
+
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        LOGGER.info("Copied {} files ({} MiB) in {} ms, {} MiB/s", files.size(), totalBytes >> 20, millis,
+                (totalBytes >> 20) * 1000 / millis);
+    }
+
+    private static IOTask copyBatch(List<Path> batch, Path source, Path target, long bytes, LongConsumer progress) {
+        return () -> {
+            for (Path file : batch) {
+                copyFile(file, target.resolve(source.relativize(file)));
+            }
+            progress.accept(bytes);
+        };
+    }
+
+    // Copy a single file, replacing the target. Uses FileChannel.transferTo so the
+    // kernel moves the data (copy_file_range or sendfile on Linux) without a trip
+    // through user space, after sizing the target up front.
+    public static void copyFile(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            if (size > 0) {
+                out.write(ByteBuffer.allocate(1), size - 1);
+            }
+            transfer(in, out, 0, size, source);
+        }
+    }
+
+    // Copy one byte range of a file into the same range of an already sized target
+    private static void copyRange(Path source, Path target, long position, long length, boolean direct)
+            throws IOException {
+        if (direct) {
+            try {
+                copyRangeDirect(source, target, position, length);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // Filesystem without O_DIRECT support, use the page cache after all
+            }
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            transfer(in, out, position, length, source);
+        }
+    }
+
+    // transferTo may copy nothing without being at the end of the file; the rest of
+    // the range is then copied through a buffer, so the loop always makes progress
+    private static void transfer(FileChannel in, FileChannel out, long position, long length, Path source)
+            throws IOException {
+        long done = 0;
+        while (done < length) {
+            long chunk = Math.min(TRANSFER_CHUNK, length - done);
+            long copied = in.transferTo(position + done, chunk, out.position(position + done));
+            if (copied <= 0) {
+                copyBuffered(in, out, position + done, length - done, source);
+                return;
+            }
+            done += copied;
+        }
+    }
+
+    private static void copyBuffered(FileChannel in, FileChannel out, long position, long length, Path source)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TRANSFER_CHUNK, length));
+        long done = 0;
+        while (done < length) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - done));
+            int read = in.read(buffer, position + done);
+            if (read < 0) {
+                throw new EOFException("File shrank while copying: " + source);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer, position + done + buffer.position());
+            }
+            done += read;
+        }
+    }
+
+    // Copy a range with O_DIRECT through an aligned buffer, bypassing the page cache so
+    // multi-gigabyte region files do not evict the game's working set. Ranges start
+    // on a block boundary; the final block may be padded past the end of the file.
+    private static void copyRangeDirect(Path source, Path target, long position, long length) throws IOException {
+        int align = (int) Files.getFileStore(target).getBlockSize();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(TRANSFER_CHUNK + align).alignedSlice(align);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ, ExtendedOpenOption.DIRECT);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT)) {
+            long done = 0;
+            while (done < length) {
+                long remaining = length - done;
+                buffer.clear().limit((int) Math.min(TRANSFER_CHUNK, (remaining + align - 1) / align * align));
+                // A read ending off a block boundary has hit the end of the file
+                while (buffer.hasRemaining() && buffer.position() % align == 0) {
+                    if (in.read(buffer, position + done + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                int read = buffer.position();
+                if (read == 0) {
+                    throw new IOException("File shrank while copying: " + source);
+                }
+                buffer.flip().limit((read + align - 1) / align * align);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer, position + done + buffer.position());
+                }
+                done += Math.min(read, remaining);
+            }
+        }
+    }
+
+    // Hard link target to base if base is an unchanged copy of file
+    private static boolean tryLink(Path file, Path base, Path target) throws IOException {
+        if (!Files.isRegularFile(base)) {
+            return false;
+        }
+        BasicFileAttributes fileAttrs = Files.readAttributes(file, BasicFileAttributes.class);
+        BasicFileAttributes baseAttrs = Files.readAttributes(base, BasicFileAttributes.class);
+        if (fileAttrs.size() != baseAttrs.size()
+                || !fileAttrs.lastModifiedTime().equals(baseAttrs.lastModifiedTime())) {
+            return false;
+        }
+        try {
+            Files.createLink(target, base);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Link limit reached or links not supported, fall back to a copy
+            return false;
+        }
+    }
+
+    // Clone files with GNU cp, which uses the FICLONE ioctl on btrfs, XFS and other
+    // copy-on-write filesystems. Returns false if reflinks are unavailable, in which
+    // case nothing has been written.
+    private static boolean reflinkFiles(Path source, Path target, List<Path> files, List<Long> sizes,
+            LongConsumer progress) throws IOException {
+        // Probed in target, which this mod owns, rather than in a source that may be the
+        // live world; both must be on one filesystem anyway
+        if (files.isEmpty() || !Files.getFileStore(source).equals(Files.getFileStore(target))
+                || !supportsReflink(target)) {
+            return false;
+        }
+        for (int start = 0; start < files.size(); start += REFLINK_BATCH) {
+            int end = Math.min(files.size(), start + REFLINK_BATCH);
+            List<String> command = new ArrayList<>(List.of("cp", "--reflink=always", "--parents", "-t",
+                    target.toAbsolutePath().toString(), "--"));
+            long bytes = 0;
+            for (int i = start; i < end; i++) {
+                command.add(source.relativize(files.get(i)).toString());
+                bytes += sizes.get(i);
+            }
+            if (!run(command, source)) {
+                // The filesystem refused after all; copy this batch and the rest
+                copyFiles(source, target, files.subList(start, files.size()), sizes.subList(start, sizes.size()),
+                        progress);
+                return true;
+            }
+            progress.accept(bytes);
+        }
+        return true;
+    }
+
+    // Probe once per filesystem whether cp can reflink files on it
+    private static boolean supportsReflink(Path dir) throws IOException {
+        if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")) {
+            return false;
+        }
+        String store = Files.getFileStore(dir).name();
+        Boolean supported = REFLINK_SUPPORT.get(store);
+        if (supported == null) {
+            Path probe = Files.createTempFile(dir, ".reflink", ".tmp");
+            Path clone = probe.resolveSibling(probe.getFileName() + ".clone");
+            try {
+                Files.write(probe, new byte[] { 1 });
+                supported = run(List.of("cp", "--reflink=always", "--", probe.toString(), clone.toString()), dir);
+            } finally {
+                Files.deleteIfExists(clone);
+                Files.deleteIfExists(probe);
+            }
+            REFLINK_SUPPORT.put(store, supported);
+        }
+        return supported;
+    }
+
+    private static boolean run(List<String> command, Path workingDir) throws IOException {
+        Process process = new ProcessBuilder(command)
+                .directory(workingDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            return process.waitFor() == 0;
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while cloning files", e);
+        }
+    }
+
+    // Run a single task on the shared IO pool
+    static <T> Future<T> submit(Callable<T> task) {
+        return POOL.submit(task);
+    }
+
+    // Run tasks on the IO pool with as many workers as the device holding path
+    // handles well, and wait for all of them. The first failure cancels the rest.
+    static void runParallel(Path path, List<IOTask> tasks) throws IOException {
+        int workers = Math.min(tasks.size(), workerCount(path));
+        if (workers <= 1) {
+            for (IOTask task : tasks) {
+                task.run();
+            }
+            return;
+        }
+
+        Queue<IOTask> queue = new ConcurrentLinkedQueue<>(tasks);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            futures.add(POOL.submit(() -> {
+                IOTask task;
+                while ((task = queue.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (IOException | RuntimeException e) {
+                        queue.clear();
+                        throw e;
+                    }
+                }
+                return null;
+            }));
+        }
+
+        IOException failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queue.clear();
+                throw new IOException("Interrupted while copying", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Number of parallel workers for the storage device holding path:
+    // the configured value, or a guess based on whether the device is rotational
+    static int workerCount(Path path) {
+        if (Config.copyThreads > 0) {
+            return Config.copyThreads;
+        }
+        try {
+            Path existing = path;
+            while (existing != null && !Files.exists(existing)) {
+                existing = existing.getParent();
+            }
+            if (existing == null) {
+                return defaultWorkers(false);
+            }
+            String device = Files.getFileStore(existing).name();
+            return DEVICE_WORKERS.computeIfAbsent(device, name -> defaultWorkers(isRotational(name)));
+        } catch (IOException e) {
+            return defaultWorkers(false);
+        }
+    }
+
+    private static int defaultWorkers(boolean rotational) {
+        // Seeking disks lose throughput with many concurrent streams
+        return rotational ? 2 : Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Linux exposes the device type under /sys; everything else is treated as solid state
+    private static boolean isRotational(String device) {
+        if (!device.startsWith("/dev/")) {
+            return false;
+        }
+        try {
+            Path block = Paths.get("/sys/class/block", device.substring(5)).toRealPath();
+            for (Path dir = block; dir != null; dir = dir.getParent()) {
+                Path flag = dir.resolve("queue/rotational");
+                if (Files.exists(flag)) {
+                    return Files.readString(flag).trim().equals("1");
+                }
+            }
+        } catch (IOException | InvalidPathException e) {
+            // Unknown device layout
+        }
+        return false;
+    }
+
+    // Total size of all files under a directory
+    public static long sizeOf(Path directory) throws IOException {
+        return usageOf(directory).bytes();
+    }
+
+    // Size and number of the files a snapshot or directory holds
+    record Usage(long bytes, long files) {
+    }
+
+    static Usage usageOf(Path directory) throws IOException {
+        long[] total = new long[2];
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                total[0] += attrs.size();
+                total[1]++;
                 return FileVisitResult.CONTINUE;
             }
         });
+        return new Usage(total[0], total[1]);
+    }
+
+    // Called between small units of background work so it can yield or slow down
+    interface Throttle {
+        void pause() throws IOException;
     }
 
     // Recursively delete a directory
     public static void deleteDirectory(Path directory) throws IOException {
+        deleteDirectory(directory, () -> {
+        });
+    }
+
+    // Recursively delete a directory, pausing after every file
+    public static void deleteDirectory(Path directory, Throttle throttle) throws IOException {
         Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                 Files.delete(file);
+                throttle.pause();
                 return FileVisitResult.CONTINUE;
             }
 
@@ -43,4 +550,4 @@ public class FileUtils {
             }
         });
     }
-}
\ No newline at end of file
+}
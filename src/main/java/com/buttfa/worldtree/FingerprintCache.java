@@ -0,0 +1,123 @@
+package com.buttfa.worldtree;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Fingerprints of the files of a world: size, modification time and XXH64 of the
+// content by world-relative name, kept next to the tree in WorldTree.fingerprints.
+// A file whose size and modification time match its entry is taken to be
+// unchanged, as rsync does, so comparing it against a snapshot is a metadata lookup;
+// other files are hashed again by the worker asking for them. Restores record the
+// fingerprints of the files they write, so those are never read back.
+// Only used from snapshot jobs, which run one at a time; lookups may run in parallel.
+final class FingerprintCache {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    static final String FILE = "WorldTree.fingerprints";
+
+    private static final int MAGIC = 0x57544650; // "WTFP"
+    private static final int VERSION = 1;
+
+    private record Fingerprint(long size, long mtime, long hash) {
+    }
+
+    private final Path file;
+    private final Map<String, Fingerprint> entries = new ConcurrentHashMap<>();
+    private volatile boolean changed;
+
+    private FingerprintCache(Path file) {
+        this.file = file;
+    }
+
+    // Read the cache of the world whose tree is in treeDir; a missing or damaged
+    // cache starts out empty
+    static FingerprintCache load(Path treeDir) {
+        FingerprintCache cache = new FingerprintCache(treeDir.resolve(FILE));
+        if (!Files.exists(cache.file)) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a fingerprint cache");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                cache.entries.put(in.readUTF(), new Fingerprint(in.readLong(), in.readLong(), in.readLong()));
+            }
+        } catch (EOFException e) {
+            LOGGER.warn("Truncated fingerprint cache {}, rebuilding it", cache.file);
+            cache.entries.clear();
+        } catch (IOException e) {
+            LOGGER.warn("Unreadable fingerprint cache {}, rebuilding it: {}", cache.file, e.getMessage());
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    // XXH64 of the file with the given name and attributes, hashed only if it changed
+    // since it was last fingerprinted
+    long fingerprint(Path file, String name, BasicFileAttributes attrs) throws IOException {
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().toMillis();
+        Fingerprint cached = entries.get(name);
+        if (cached != null && cached.size == size && cached.mtime == mtime) {
+            return cached.hash;
+        }
+        long hash = XxHash64.hash(file);
+        put(name, size, mtime, hash);
+        return hash;
+    }
+
+    // Record a file written with known content
+    void put(String name, long size, long mtime, long hash) {
+        entries.put(name, new Fingerprint(size, mtime, hash));
+        changed = true;
+    }
+
+    // Forget every file not named, after a full listing of the world
+    void retain(Collection<String> names) {
+        Set<String> keep = names instanceof Set<String> set ? set : new HashSet<>(names);
+        if (entries.keySet().retainAll(keep)) {
+            changed = true;
+        }
+    }
+
+    // Write the cache if anything changed since it was loaded
+    void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+        // Written next to the final file and moved in place, like the tree files
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            Map<String, Fingerprint> snapshot = Map.copyOf(entries);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Fingerprint> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().mtime);
+                out.writeLong(entry.getValue().hash);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+}
@@ -0,0 +1,365 @@
+package com.buttfa.worldtree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Packed snapshot format: a whole node world in one seekable file.
+// Region chunks are stored without their sector padding (they are zlib data already),
+// other files are deflated by several workers at once, and an index at the end of the
+// file lets a restore extract every entry independently and in parallel.
+//
+// Layout: MAGIC, VERSION, entry data..., index, index offset (long), MAGIC
+final class SnapshotArchive {
+    static final String EXTENSION = ".wtpack";
+
+    private static final int MAGIC = 0x5754504B; // "WTPK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int FOOTER_SIZE = 12;
+    private static final long STREAM_THRESHOLD = 64L << 20; // Larger plain files are stored as is
+
+    static final byte DIRECTORY = 0;
+    private static final byte DEFLATED = 1;
+    private static final byte STORED = 2;
+    private static final byte REGION = 3;
+
+    private SnapshotArchive() {
+    }
+
+    // One file or directory in the archive
+    record Entry(String path, byte kind, long mtime, long size, long offset, long length) {
+    }
+
+    // Encoded file contents waiting to be appended; data is null for streamed files
+    private record Encoded(byte kind, byte[] data) {
+    }
+
+    // Pack a world directory into an archive, replacing any existing one
+    static void write(Path worldDir, Path archive, LongConsumer progress) throws IOException {
+        List<String> dirs = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        Files.walkFileTree(worldDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(worldDir)) {
+                    dirs.add(relativeName(worldDir, dir));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                attributes.add(attrs);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        List<Entry> index = new ArrayList<>();
+        for (String dir : dirs) {
+            index.add(new Entry(dir, DIRECTORY, 0, 0, 0, 0));
+        }
+
+        Path temp = archive.resolveSibling(archive.getFileName() + ".tmp");
+        // Encode ahead of the writer, but only a bounded window to cap memory use
+        int window = FileUtils.workerCount(archive) * 2;
+        Deque<Future<Encoded>> inFlight = new ArrayDeque<>();
+        boolean written = false;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip(), 0);
+            long position = HEADER_SIZE;
+
+            int next = 0;
+            for (int i = 0; i < files.size(); i++) {
+                for (; next < files.size() && next - i < window; next++) {
+                    inFlight.add(encode(files.get(next), attributes.get(next).size()));
+                }
+                Encoded encoded = await(inFlight.poll());
+                Path file = files.get(i);
+                BasicFileAttributes attrs = attributes.get(i);
+
+                long length;
+                if (encoded.data == null) {
+                    length = append(file, out, position);
+                } else {
+                    length = encoded.data.length;
+                    writeFully(out, ByteBuffer.wrap(encoded.data), position);
+                }
+                index.add(new Entry(relativeName(worldDir, file), encoded.kind,
+                        attrs.lastModifiedTime().toMillis(), attrs.size(), position, length));
+                position += length;
+                progress.accept(attrs.size());
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream data = new DataOutputStream(bytes)) {
+                data.writeInt(index.size());
+                for (Entry entry : index) {
+                    data.writeUTF(entry.path);
+                    data.writeByte(entry.kind);
+                    data.writeLong(entry.mtime);
+                    data.writeLong(entry.size);
+                    data.writeLong(entry.offset);
+                    data.writeLong(entry.length);
+                }
+                data.writeLong(position);
+                data.writeInt(MAGIC);
+            }
+            writeFully(out, ByteBuffer.wrap(bytes.toByteArray()), position);
+            written = true;
+        } finally {
+            // Whatever failed, leave neither encoders running nor a partial archive
+            if (!written) {
+                for (Future<Encoded> future : inFlight) {
+                    future.cancel(true);
+                }
+                Files.deleteIfExists(temp);
+            }
+        }
+        Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Extract an archive into targetDir, which must not exist yet
+    static void extract(Path archive, Path targetDir, LongConsumer progress) throws IOException {
+        extract(archive, targetDir, name -> true, progress);
+    }
+
+    // Extract the files include accepts, and every directory
+    static void extract(Path archive, Path targetDir, Predicate<String> include, LongConsumer progress)
+            throws IOException {
+        List<Entry> index = readIndex(archive);
+        Files.createDirectories(targetDir);
+        List<FileUtils.IOTask> tasks = new ArrayList<>();
+        for (Entry entry : index) {
+            Path dest = targetDir.resolve(entry.path);
+            if (entry.kind == DIRECTORY) {
+                Files.createDirectories(dest);
+                continue;
+            }
+            if (!include.test(entry.path)) {
+                continue;
+            }
+            tasks.add(() -> {
+                try (FileChannel in = FileChannel.open(archive, StandardOpenOption.READ)) {
+                    if (entry.kind == STORED) {
+                        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                            for (long done = 0; done < entry.length;) {
+                                long copied = in.transferTo(entry.offset + done, entry.length - done, out);
+                                if (copied <= 0) {
+                                    throw new EOFException("Truncated snapshot archive: " + archive);
+                                }
+                                done += copied;
+                            }
+                        }
+                    } else {
+                        ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(entry.length));
+                        readFully(in, data, entry.offset);
+                        if (entry.kind == REGION) {
+                            decodeRegion(data.array(), dest);
+                        } else {
+                            try (InputStream inflater = new InflaterInputStream(new ByteArrayInputStream(data.array()))) {
+                                Files.copy(inflater, dest, StandardCopyOption.REPLACE_EXISTING);
+                            }
+                        }
+                    }
+                }
+                Files.setLastModifiedTime(dest, FileTime.fromMillis(entry.mtime));
+                progress.accept(entry.size);
+            });
+        }
+        FileUtils.runParallel(targetDir, tasks);
+    }
+
+    // Total size of the world stored in an archive
+    static FileUtils.Usage usageOf(Path archive) throws IOException {
+        long total = 0;
+        long files = 0;
+        for (Entry entry : readIndex(archive)) {
+            total += entry.size;
+            if (entry.kind != DIRECTORY) {
+                files++;
+            }
+        }
+        return new FileUtils.Usage(total, files);
+    }
+
+    static List<Entry> readIndex(Path archive) throws IOException {
+        try (FileChannel in = FileChannel.open(archive, StandardOpenOption.READ)) {
+            long size = in.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            if (size < HEADER_SIZE + FOOTER_SIZE) {
+                throw new IOException("Truncated snapshot archive: " + archive);
+            }
+            readFully(in, header, 0);
+            readFully(in, footer, size - FOOTER_SIZE);
+            long indexOffset = footer.getLong(0);
+            if (header.getInt(0) != MAGIC || footer.getInt(8) != MAGIC || indexOffset < HEADER_SIZE
+                    || indexOffset > size - FOOTER_SIZE) {
+                throw new IOException("Not a snapshot archive: " + archive);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported snapshot archive version " + header.getInt(4));
+            }
+
+            ByteBuffer bytes = ByteBuffer.allocate(Math.toIntExact(size - FOOTER_SIZE - indexOffset));
+            readFully(in, bytes, indexOffset);
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes.array()));
+            int count = data.readInt();
+            List<Entry> index = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                index.add(new Entry(data.readUTF(), data.readByte(), data.readLong(), data.readLong(),
+                        data.readLong(), data.readLong()));
+            }
+            return index;
+        }
+    }
+
+    // Start encoding a file on the IO pool; large plain files are streamed by the writer
+    private static Future<Encoded> encode(Path file, long size) {
+        if (AnvilRegion.isRegionFile(file)) {
+            return FileUtils.submit(() -> {
+                try {
+                    return new Encoded(REGION, encodeRegion(file));
+                } catch (AnvilRegion.MalformedRegionException e) {
+                    // Not a well-formed region file, pack it like any other file
+                    return size > STREAM_THRESHOLD ? new Encoded(STORED, null) : new Encoded(DEFLATED, deflate(file));
+                }
+            });
+        }
+        if (size > STREAM_THRESHOLD) {
+            return CompletableFuture.completedFuture(new Encoded(STORED, null));
+        }
+        return FileUtils.submit(() -> new Encoded(DEFLATED, deflate(file)));
+    }
+
+    private static Encoded await(Future<Encoded> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while packing snapshot", e);
+        }
+    }
+
+    private static byte[] deflate(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (OutputStream out = new DeflaterOutputStream(bytes, deflater, 64 * 1024)) {
+            Files.copy(file, out);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    // Region entry: 1024 timestamps, 1024 payload lengths, then the payloads back to back
+    private static byte[] encodeRegion(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            AnvilRegion.Header header = AnvilRegion.readHeader(in);
+            int[] lengths = new int[AnvilRegion.CHUNK_COUNT];
+            for (int i = 0; i < AnvilRegion.CHUNK_COUNT; i++) {
+                lengths[i] = AnvilRegion.payloadLength(in, header, i);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(in.size(), 1 << 30));
+            try (DataOutputStream data = new DataOutputStream(bytes)) {
+                for (int timestamp : header.timestamps) {
+                    data.writeInt(timestamp);
+                }
+                for (int length : lengths) {
+                    data.writeInt(length);
+                }
+                for (int i = 0; i < AnvilRegion.CHUNK_COUNT; i++) {
+                    if (lengths[i] > 0) {
+                        data.write(AnvilRegion.readPayload(in, header, i, lengths[i]));
+                    }
+                }
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static void decodeRegion(byte[] bytes, Path dest) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+        int[] timestamps = new int[AnvilRegion.CHUNK_COUNT];
+        int[] offsets = new int[AnvilRegion.CHUNK_COUNT];
+        int[] lengths = new int[AnvilRegion.CHUNK_COUNT];
+        for (int i = 0; i < AnvilRegion.CHUNK_COUNT; i++) {
+            timestamps[i] = data.getInt();
+        }
+        int offset = AnvilRegion.CHUNK_COUNT * 8;
+        for (int i = 0; i < AnvilRegion.CHUNK_COUNT; i++) {
+            lengths[i] = data.getInt();
+            offsets[i] = offset;
+            offset += lengths[i];
+        }
+        if (offset != bytes.length) {
+            throw new IOException("Corrupt region entry for " + dest);
+        }
+        AnvilRegion.write(dest, timestamps,
+                i -> lengths[i] > 0 ? Arrays.copyOfRange(bytes, offsets[i], offsets[i] + lengths[i]) : null);
+    }
+
+    // Stream a file into the archive at position and return its length
+    private static long append(Path file, FileChannel out, long position) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = in.size();
+            for (long done = 0; done < size;) {
+                long copied = in.transferTo(done, size - done, out.position(position + done));
+                if (copied <= 0) {
+                    throw new EOFException("File shrank while packing: " + file);
+                }
+                done += copied;
+            }
+            return size;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of snapshot archive");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static String relativeName(Path root, Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,180 @@
+package com.buttfa.worldtree;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Reclaims the snapshots of deleted nodes in the background.
+// Deleting a branch only records tombstones in the tree file. This thread removes
+// their data afterwards at low priority, a batch of files at a time, and steps aside
+// whenever snapshot jobs are waiting. A tombstone is only dropped from the tree file
+// once its data is gone, so collection resumes after a restart.
+final class SnapshotCollector {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int BATCH_FILES = 32; // Files deleted before yielding
+    private static final long BATCH_PAUSE_MS = 5; // Pause between batches
+    private static final long BUSY_POLL_MS = 250; // Wait between checks while jobs are queued
+
+    private static final BlockingQueue<Work> QUEUE = new LinkedBlockingQueue<>();
+    private static final Set<String> QUEUED = ConcurrentHashMap.newKeySet();
+    private static Thread thread;
+
+    private SnapshotCollector() {
+    }
+
+    // Snapshot data of a deleted node still waiting to be reclaimed
+    record Tombstone(String folderName, SnapshotFormat format) {
+    }
+
+    // Called on the collector thread once a tombstone's data is gone
+    interface Listener {
+        void reclaimed(Path treeDir, Tombstone tombstone);
+    }
+
+    private record Work(Path treeDir, List<Tombstone> tombstones, Listener listener) {
+    }
+
+    // Queue tombstones of a world tree; ones already queued are ignored
+    static synchronized void collect(Path treeDir, List<Tombstone> tombstones, Listener listener) {
+        List<Tombstone> fresh = new ArrayList<>();
+        for (Tombstone tombstone : tombstones) {
+            if (QUEUED.add(key(treeDir, tombstone))) {
+                fresh.add(tombstone);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        QUEUE.add(new Work(treeDir, fresh, listener));
+
+        if (thread == null) {
+            thread = new Thread(SnapshotCollector::run, "WorldTree-Collector");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    private static void run() {
+        while (true) {
+            Work work;
+            try {
+                work = QUEUE.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                collect(work);
+            } catch (IOException e) {
+                // The tombstones stay in the tree file and are retried on the next load
+                LOGGER.error("Failed to reclaim deleted snapshots in {}: {}", work.treeDir, e.getMessage());
+            } finally {
+                for (Tombstone tombstone : work.tombstones) {
+                    QUEUED.remove(key(work.treeDir, tombstone));
+                }
+            }
+        }
+    }
+
+    private static void collect(Work work) throws IOException {
+        Pacer pacer = new Pacer();
+        try {
+            pacer.acquire();
+            SnapshotMetrics.Timer timer = SnapshotMetrics.start(SnapshotMetrics.Phase.COLLECT,
+                    work.tombstones.size() + " snapshots");
+            List<Tombstone> shared = new ArrayList<>();
+            for (Tombstone tombstone : work.tombstones) {
+                tombstone.format.delete(work.treeDir, tombstone.folderName, pacer);
+                if (tombstone.format == SnapshotFormat.DEDUP) {
+                    // Not reclaimed until the blobs only it referred to are gone too
+                    shared.add(tombstone);
+                } else {
+                    LOGGER.info("Reclaimed node snapshot: {}", tombstone.folderName);
+                    work.listener.reclaimed(work.treeDir, tombstone);
+                }
+            }
+
+            if (!shared.isEmpty()) {
+                int removed = sweep(new SnapshotStore(work.treeDir), pacer);
+                LOGGER.info("Removed {} unreferenced snapshot blobs", removed);
+                for (Tombstone tombstone : shared) {
+                    work.listener.reclaimed(work.treeDir, tombstone);
+                }
+            }
+            // Includes the pauses, which is how long the space took to come back
+            timer.finish(0, pacer.files);
+        } finally {
+            SnapshotJobs.RUNNING.unlock();
+        }
+    }
+
+    // Delete unreferenced store blobs. A capture running while the collector yields
+    // may reuse a blob found unreferenced before, so the mark is redone after any job.
+    private static int sweep(SnapshotStore store, Pacer pacer) throws IOException {
+        int removed = 0;
+        while (true) {
+            long generation = SnapshotJobs.completed();
+            List<Path> garbage = store.unreferencedBlobs();
+            boolean stale = false;
+            for (Path blob : garbage) {
+                if (SnapshotJobs.completed() != generation) {
+                    stale = true;
+                    break;
+                }
+                if (Files.deleteIfExists(blob)) {
+                    removed++;
+                }
+                pacer.pause();
+            }
+            if (!stale) {
+                return removed;
+            }
+        }
+    }
+
+    // Holds the job lock for a batch of files, then lets queued jobs run first
+    private static final class Pacer implements FileUtils.Throttle {
+        private int files;
+
+        // Wait until no jobs are queued and take the lock; it is held even on failure
+        void acquire() throws IOException {
+            try {
+                while (SnapshotJobs.isBusy()) {
+                    Thread.sleep(BUSY_POLL_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for snapshot jobs", e);
+            } finally {
+                SnapshotJobs.RUNNING.lock();
+            }
+        }
+
+        @Override
+        public void pause() throws IOException {
+            if (++files % BATCH_FILES != 0) {
+                return;
+            }
+            SnapshotJobs.RUNNING.unlock();
+            try {
+                Thread.sleep(BATCH_PAUSE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            acquire();
+        }
+    }
+
+    private static String key(Path treeDir, Tombstone tombstone) {
+        return treeDir + "/" + tombstone.folderName;
+    }
+}
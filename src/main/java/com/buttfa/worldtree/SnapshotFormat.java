@@ -0,0 +1,281 @@
+package com.buttfa.worldtree;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+// Storage formats a node's world snapshot can be kept in.
+// The format is recorded per node, so trees may mix formats after the config changes.
+// All methods run on the snapshot thread, see SnapshotJobs.
+public enum SnapshotFormat {
+    // Plain directory copy under <world>-WorldTree/<folderName>
+    COPY {
+        @Override
+        void capture(Path worldDir, Path treeDir, WorldTree.TreeNode node, DirtyChunkTracker.Changes changes,
+                SnapshotJobs.Progress progress) throws IOException {
+            progress.setTotal(FileUtils.usageOf(worldDir));
+            FileUtils.copyDirectory(worldDir, treeDir.resolve(node.folderName), progress::add);
+        }
+
+        @Override
+        void restore(Path treeDir, WorldTree.TreeNode node, Path targetDir, SnapshotJobs.Progress progress)
+                throws IOException {
+            Path source = treeDir.resolve(node.folderName);
+            progress.setTotal(FileUtils.usageOf(source));
+            FileUtils.copyDirectory(source, targetDir, progress::add);
+        }
+
+        @Override
+        Listing list(Path treeDir, WorldTree.TreeNode node) {
+            // Neither captures nor restores keep modification times, so a restored
+            // world can never be matched against the snapshot without reading both
+            return null;
+        }
+
+        @Override
+        void restoreFiles(Path treeDir, WorldTree.TreeNode node, Path targetDir, Predicate<String> include,
+                SnapshotJobs.Progress progress) throws IOException {
+            FileUtils.cloneDirectory(treeDir.resolve(node.folderName), targetDir, include, progress::add);
+        }
+
+        @Override
+        void delete(Path treeDir, String folderName, FileUtils.Throttle throttle) throws IOException {
+            Path folderPath = treeDir.resolve(folderName);
+            if (Files.exists(folderPath)) {
+                FileUtils.deleteDirectory(folderPath, throttle);
+            }
+        }
+
+        @Override
+        boolean exists(Path treeDir, WorldTree.TreeNode node) {
+            return Files.isDirectory(treeDir.resolve(node.folderName));
+        }
+    },
+
+    // Directory under <world>-WorldTree/<folderName> whose files unchanged since the
+    // parent's LINK snapshot are hard links to it, and reflinks or copies otherwise
+    LINK {
+        @Override
+        void capture(Path worldDir, Path treeDir, WorldTree.TreeNode node, DirtyChunkTracker.Changes changes,
+                SnapshotJobs.Progress progress) throws IOException {
+            progress.setTotal(FileUtils.usageOf(worldDir));
+            WorldTree.TreeNode parent = node.parent;
+            Path base = parent != null && parent.format == LINK && parent.folderName != null
+                    ? treeDir.resolve(parent.folderName)
+                    : null;
+            FileUtils.linkDirectory(worldDir, treeDir.resolve(node.folderName),
+                    base != null && Files.isDirectory(base) ? base : null, progress::add);
+        }
+
+        @Override
+        void restore(Path treeDir, WorldTree.TreeNode node, Path targetDir, SnapshotJobs.Progress progress)
+                throws IOException {
+            // The game rewrites region files in place, so the live world must not
+            // share hard links with snapshots
+            Path source = treeDir.resolve(node.folderName);
+            progress.setTotal(FileUtils.usageOf(source));
+            FileUtils.cloneDirectory(source, targetDir, progress::add);
+        }
+
+        @Override
+        Listing list(Path treeDir, WorldTree.TreeNode node) throws IOException {
+            Path source = treeDir.resolve(node.folderName);
+            Listing listing = new Listing(new HashSet<>(), new HashMap<>());
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(source)) {
+                        listing.dirs().add(relativeName(source, dir));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    listing.files().put(relativeName(source, file),
+                            new FileState(attrs.size(), attrs.lastModifiedTime().toMillis(), null));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return listing;
+        }
+
+        @Override
+        void restoreFiles(Path treeDir, WorldTree.TreeNode node, Path targetDir, Predicate<String> include,
+                SnapshotJobs.Progress progress) throws IOException {
+            FileUtils.cloneDirectory(treeDir.resolve(node.folderName), targetDir, include, progress::add);
+        }
+
+        @Override
+        void delete(Path treeDir, String folderName, FileUtils.Throttle throttle) throws IOException {
+            COPY.delete(treeDir, folderName, throttle);
+        }
+
+        @Override
+        boolean exists(Path treeDir, WorldTree.TreeNode node) {
+            return COPY.exists(treeDir, node);
+        }
+    },
+
+    // Deduplicated blobs shared by all nodes, see SnapshotStore
+    DEDUP {
+        @Override
+        void capture(Path worldDir, Path treeDir, WorldTree.TreeNode node, DirtyChunkTracker.Changes changes,
+                SnapshotJobs.Progress progress) throws IOException {
+            progress.setTotal(FileUtils.usageOf(worldDir));
+            // Chunks unchanged since the parent's snapshot are shared with it
+            WorldTree.TreeNode parent = node.parent;
+            String parentKey = parent != null && parent.format == DEDUP ? parent.folderName : null;
+            // Region files the server has not touched since the parent's flush are
+            // taken over without opening them
+            DirtyChunkTracker.Changes since = changes != null && parentKey != null && parentKey.equals(changes.base())
+                    ? changes
+                    : null;
+            new SnapshotStore(treeDir).capture(worldDir, node.folderName, parentKey, since, progress::add);
+        }
+
+        @Override
+        void restore(Path treeDir, WorldTree.TreeNode node, Path targetDir, SnapshotJobs.Progress progress)
+                throws IOException {
+            SnapshotStore store = new SnapshotStore(treeDir);
+            progress.setTotal(store.usageOf(node.folderName));
+            store.restore(node.folderName, targetDir, progress::add);
+        }
+
+        @Override
+        Listing list(Path treeDir, WorldTree.TreeNode node) throws IOException {
+            SnapshotStore.Manifest manifest = new SnapshotStore(treeDir).readManifest(node.folderName);
+            Listing listing = new Listing(new HashSet<>(manifest.dirs), new HashMap<>());
+            for (Map.Entry<String, SnapshotStore.Entry> file : manifest.files.entrySet()) {
+                SnapshotStore.Entry entry = file.getValue();
+                listing.files().put(file.getKey(), new FileState(entry.size, entry.mtime, entry.fingerprint));
+            }
+            return listing;
+        }
+
+        @Override
+        void restoreFiles(Path treeDir, WorldTree.TreeNode node, Path targetDir, Predicate<String> include,
+                SnapshotJobs.Progress progress) throws IOException {
+            new SnapshotStore(treeDir).restore(node.folderName, targetDir, include, progress::add);
+        }
+
+        @Override
+        void delete(Path treeDir, String folderName, FileUtils.Throttle throttle) throws IOException {
+            // Blobs are shared, so only the manifest goes here; see SnapshotCollector
+            new SnapshotStore(treeDir).deleteManifest(folderName);
+        }
+
+        @Override
+        boolean exists(Path treeDir, WorldTree.TreeNode node) {
+            return new SnapshotStore(treeDir).hasManifest(node.folderName);
+        }
+    },
+
+    // Single compressed archive <world>-WorldTree/<folderName>.wtpack, see SnapshotArchive
+    PACKED {
+        @Override
+        void capture(Path worldDir, Path treeDir, WorldTree.TreeNode node, DirtyChunkTracker.Changes changes,
+                SnapshotJobs.Progress progress) throws IOException {
+            progress.setTotal(FileUtils.usageOf(worldDir));
+            SnapshotArchive.write(worldDir, archive(treeDir, node), progress::add);
+        }
+
+        @Override
+        void restore(Path treeDir, WorldTree.TreeNode node, Path targetDir, SnapshotJobs.Progress progress)
+                throws IOException {
+            Path archive = archive(treeDir, node);
+            progress.setTotal(SnapshotArchive.usageOf(archive));
+            SnapshotArchive.extract(archive, targetDir, progress::add);
+        }
+
+        @Override
+        Listing list(Path treeDir, WorldTree.TreeNode node) throws IOException {
+            Listing listing = new Listing(new HashSet<>(), new HashMap<>());
+            for (SnapshotArchive.Entry entry : SnapshotArchive.readIndex(archive(treeDir, node))) {
+                if (entry.kind() == SnapshotArchive.DIRECTORY) {
+                    listing.dirs().add(entry.path());
+                } else {
+                    listing.files().put(entry.path(), new FileState(entry.size(), entry.mtime(), null));
+                }
+            }
+            return listing;
+        }
+
+        @Override
+        void restoreFiles(Path treeDir, WorldTree.TreeNode node, Path targetDir, Predicate<String> include,
+                SnapshotJobs.Progress progress) throws IOException {
+            SnapshotArchive.extract(archive(treeDir, node), targetDir, include, progress::add);
+        }
+
+        @Override
+        void delete(Path treeDir, String folderName, FileUtils.Throttle throttle) throws IOException {
+            Files.deleteIfExists(treeDir.resolve(folderName + SnapshotArchive.EXTENSION));
+        }
+
+        @Override
+        boolean exists(Path treeDir, WorldTree.TreeNode node) {
+            return Files.isRegularFile(archive(treeDir, node));
+        }
+
+        private Path archive(Path treeDir, WorldTree.TreeNode node) {
+            return treeDir.resolve(node.folderName + SnapshotArchive.EXTENSION);
+        }
+    };
+
+    // Store the world directory as the snapshot of the node; changes lists the region
+    // files written since the chunks were last flushed for a snapshot, if known
+    abstract void capture(Path worldDir, Path treeDir, WorldTree.TreeNode node, DirtyChunkTracker.Changes changes,
+            SnapshotJobs.Progress progress) throws IOException;
+
+    // Write the node's snapshot into targetDir, which must not exist yet
+    abstract void restore(Path treeDir, WorldTree.TreeNode node, Path targetDir, SnapshotJobs.Progress progress)
+            throws IOException;
+
+    // Files and directories a restore of the node writes, or null if restored files
+    // cannot be told apart from changed ones by their size and modification time
+    abstract Listing list(Path treeDir, WorldTree.TreeNode node) throws IOException;
+
+    // Write only the files of the node's snapshot that include accepts into targetDir,
+    // with every directory, keeping their modification times; see WorldSwitch
+    abstract void restoreFiles(Path treeDir, WorldTree.TreeNode node, Path targetDir, Predicate<String> include,
+            SnapshotJobs.Progress progress) throws IOException;
+
+    // Remove the snapshot data of a deleted node, pausing between files
+    abstract void delete(Path treeDir, String folderName, FileUtils.Throttle throttle) throws IOException;
+
+    abstract boolean exists(Path treeDir, WorldTree.TreeNode node);
+
+    // A file as a restore writes it. fingerprint is the XXH64 of its content where the
+    // format records it, null otherwise; see FingerprintCache.
+    record FileState(long size, long mtime, Long fingerprint) {
+    }
+
+    // Directories and files of a snapshot by '/' separated world-relative name
+    record Listing(Set<String> dirs, Map<String, FileState> files) {
+    }
+
+    private static String relativeName(Path root, Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+
+    // Parse a format name from the tree file, treating unknown or missing values as
+    // the original directory copies
+    static SnapshotFormat fromName(String name) {
+        if (name != null) {
+            for (SnapshotFormat format : values()) {
+                if (format.name().equals(name)) {
+                    return format;
+                }
+            }
+        }
+        return COPY;
+    }
+}
@@ -0,0 +1,115 @@
+package com.buttfa.worldtree;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Background queue for snapshot, restore and delete work.
+// Jobs run one at a time in submission order, so a restore queued after a capture
+// always sees the finished snapshot, and the client thread never blocks on disk I/O.
+final class SnapshotJobs {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WorldTree-Snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Held while a job runs; background work that must not overlap jobs takes it too
+    static final ReentrantLock RUNNING = new ReentrantLock();
+    private static final AtomicInteger pending = new AtomicInteger();
+    private static final AtomicLong completed = new AtomicLong();
+    private static volatile Progress current; // Job currently running, null when idle
+
+    private SnapshotJobs() {
+    }
+
+    // Work executed on the snapshot thread
+    interface Task {
+        void run(Progress progress) throws IOException;
+    }
+
+    // Progress of a running job, polled by the UI every frame
+    static final class Progress {
+        final String description;
+        private final AtomicLong done = new AtomicLong();
+        private volatile long total;
+        private volatile long files; // Files of the world being captured or restored
+
+        Progress(String description) {
+            this.description = description;
+        }
+
+        // Called from the snapshot thread and the IO workers it fans out to
+        void add(long bytes) {
+            done.addAndGet(bytes);
+        }
+
+        void setTotal(FileUtils.Usage usage) {
+            total = usage.bytes();
+            files = usage.files();
+        }
+
+        long done() {
+            return done.get();
+        }
+
+        long files() {
+            return files;
+        }
+
+        // Completed fraction in [0, 1], or -1 while the total is unknown
+        float fraction() {
+            long t = total;
+            return t > 0 ? Math.min(1.0f, (float) done.get() / t) : -1.0f;
+        }
+    }
+
+    // Queue a job; the returned future completes on the snapshot thread
+    static CompletableFuture<Void> submit(String description, Task task) {
+        pending.incrementAndGet();
+        return CompletableFuture.runAsync(() -> {
+            Progress progress = new Progress(description);
+            RUNNING.lock();
+            current = progress;
+            long start = System.nanoTime();
+            try {
+                task.run(progress);
+                LOGGER.info("{} finished in {} ms", description, (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                current = null;
+                completed.incrementAndGet();
+                RUNNING.unlock();
+                pending.decrementAndGet();
+            }
+        }, EXECUTOR);
+    }
+
+    static Progress current() {
+        return current;
+    }
+
+    // Jobs queued or running
+    static int pending() {
+        return pending.get();
+    }
+
+    static boolean isBusy() {
+        return pending.get() > 0;
+    }
+
+    // Number of jobs finished so far, to detect that one ran in between
+    static long completed() {
+        return completed.get();
+    }
+}
@@ -0,0 +1,165 @@
+package com.buttfa.worldtree;
+
+import com.mojang.logging.LogUtils;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import org.slf4j.Logger;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Timings of the phases of snapshot work, kept per phase for the debug overlay and
+// emitted as JFR events: record with -XX:StartFlightRecording and look for the
+// World Tree category. A branch is a flush and a capture, a switch a flush, a
+// restore and a reload; deleting a branch shows up as collection later.
+// Phases are timed on whichever thread runs them and finish in well under a second
+// apart from the file work itself, so the bookkeeping is a lock per phase.
+final class SnapshotMetrics {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    enum Phase {
+        FLUSH("Chunk flush"), // Saving and flushing chunks on the server thread
+        CAPTURE("Capture"), // Writing a node's snapshot
+        RESTORE("Restore"), // Rebuilding a node's world and swapping it in
+        RELOAD("Reload"), // Reopening the world after a switch until the player is back in
+        DELETE("Delete"), // Deleting a replaced world
+        COLLECT("Collect"); // Reclaiming the snapshots of deleted nodes
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    // Totals of one phase, copied out under the lock
+    record Stats(long count, long totalNanos, long lastNanos, long maxNanos, long lastBytes, long lastFiles) {
+        static final Stats NONE = new Stats(0, 0, 0, 0, 0, 0);
+    }
+
+    private static final Map<Phase, Stats> STATS = new EnumMap<>(Phase.class);
+    private static final AtomicLong VERSION = new AtomicLong(); // Bumped on every finished phase
+
+    @Name("worldtree.SnapshotPhase")
+    @Label("Snapshot Phase")
+    @Category("World Tree")
+    @Description("A phase of taking, restoring or deleting a world tree snapshot")
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Subject")
+        @Description("Node or directory the phase worked on")
+        String subject;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Files")
+        long files;
+
+        @Label("Queued Jobs")
+        @Description("Snapshot jobs queued or running when the phase ended")
+        int queueDepth;
+    }
+
+    @Name("worldtree.SnapshotQueue")
+    @Label("Snapshot Queue")
+    @Category("World Tree")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class QueueEvent extends Event {
+        @Label("Queued Jobs")
+        int queueDepth;
+
+        @Label("Running Job")
+        String running;
+
+        @Label("Running Job Progress")
+        @DataAmount
+        long done;
+    }
+
+    static {
+        FlightRecorder.addPeriodicEvent(QueueEvent.class, () -> {
+            QueueEvent event = new QueueEvent();
+            SnapshotJobs.Progress progress = SnapshotJobs.current();
+            event.queueDepth = SnapshotJobs.pending();
+            event.running = progress != null ? progress.description : null;
+            event.done = progress != null ? progress.done() : 0;
+            event.commit();
+        });
+    }
+
+    private SnapshotMetrics() {
+    }
+
+    // A phase being timed; finish it exactly once
+    static final class Timer {
+        private final Phase phase;
+        private final String subject;
+        private final long start = System.nanoTime();
+        private final PhaseEvent event = new PhaseEvent();
+
+        private Timer(Phase phase, String subject) {
+            this.phase = phase;
+            this.subject = subject;
+            event.begin();
+        }
+
+        // The phase moved the given bytes and files, where known
+        void finish(long bytes, long files) {
+            long nanos = System.nanoTime() - start;
+            int queued = SnapshotJobs.pending();
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase.label;
+                event.subject = subject;
+                event.bytes = bytes;
+                event.files = files;
+                event.queueDepth = queued;
+                event.commit();
+            }
+
+            synchronized (STATS) {
+                Stats stats = STATS.getOrDefault(phase, Stats.NONE);
+                STATS.put(phase, new Stats(stats.count() + 1, stats.totalNanos() + nanos, nanos,
+                        Math.max(stats.maxNanos(), nanos), bytes, files));
+            }
+            VERSION.incrementAndGet();
+
+            long millis = Math.max(1, nanos / 1_000_000);
+            LOGGER.debug("{} of {}: {} ms, {} MiB/s, {} files/s, {} jobs queued", phase.label, subject, millis,
+                    (bytes >> 20) * 1000 / millis, files * 1000 / millis, queued);
+        }
+
+        void finish() {
+            finish(0, 0);
+        }
+    }
+
+    static Timer start(Phase phase, String subject) {
+        return new Timer(phase, subject);
+    }
+
+    static Stats stats(Phase phase) {
+        synchronized (STATS) {
+            return STATS.getOrDefault(phase, Stats.NONE);
+        }
+    }
+
+    // Changes whenever a phase finishes, so readers can cache what they show
+    static long version() {
+        return VERSION.get();
+    }
+}
@@ -0,0 +1,89 @@
+package com.buttfa.worldtree;
+
+import net.minecraft.client.Minecraft;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.common.Tags;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.living.LivingDeathEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.level.ChunkDataEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Takes automatic snapshots while playing a singleplayer world: every so many minutes
+// of play, on dimension changes, on boss kills and after a number of chunk saves.
+// The handlers run on the server thread and only count, so they cost nothing per
+// tick beyond an increment and a comparison; the snapshot itself is handed to the
+// client thread and goes through the same path as a manual save (WorldTree.addSave).
+// Triggers closer together than autoSnapshotMinSpacingMinutes are dropped, and so are
+// triggers while another snapshot is being taken.
+@Mod.EventBusSubscriber(modid = WorldTree.MODID, bus = Mod.EventBusSubscriber.Bus.FORGE, value = Dist.CLIENT)
+final class SnapshotScheduler {
+    private static final int TICKS_PER_MINUTE = 20 * 60;
+
+    // Server thread only, except for the chunk count: chunks are also saved by the
+    // IO workers
+    private static long ticks; // Ticks played since the server started
+    private static long lastSnapshotTick;
+    private static final AtomicInteger savedChunks = new AtomicInteger();
+
+    private SnapshotScheduler() {
+    }
+
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent.Post event) {
+        ticks++;
+        if (!Config.autoSnapshots) {
+            return;
+        }
+        long interval = (long) Config.autoSnapshotIntervalMinutes * TICKS_PER_MINUTE;
+        if (interval > 0 && ticks - lastSnapshotTick >= interval) {
+            trigger("every " + Config.autoSnapshotIntervalMinutes + " min");
+        } else if (Config.autoSnapshotChunks > 0 && savedChunks.get() >= Config.autoSnapshotChunks) {
+            trigger(savedChunks.get() + " chunks saved");
+        }
+    }
+
+    @SubscribeEvent
+    public static void onDimensionChange(PlayerEvent.PlayerChangedDimensionEvent event) {
+        if (Config.autoSnapshots && Config.autoSnapshotOnDimensionChange) {
+            trigger("dimension change");
+        }
+    }
+
+    @SubscribeEvent
+    public static void onLivingDeath(LivingDeathEvent event) {
+        if (Config.autoSnapshots && Config.autoSnapshotOnBossKill
+                && event.getEntity().getType().is(Tags.EntityTypes.BOSSES)) {
+            trigger("boss killed");
+        }
+    }
+
+    @SubscribeEvent
+    public static void onChunkSave(ChunkDataEvent.Save event) {
+        if (Config.autoSnapshots && Config.autoSnapshotChunks > 0) {
+            savedChunks.incrementAndGet();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        ticks = 0;
+        lastSnapshotTick = 0;
+        savedChunks.set(0);
+    }
+
+    private static void trigger(String reason) {
+        long spacing = (long) Config.autoSnapshotMinSpacingMinutes * TICKS_PER_MINUTE;
+        if (lastSnapshotTick != 0 && ticks - lastSnapshotTick < spacing) {
+            return;
+        }
+        // Every trigger restarts the interval and the chunk count, whichever fired
+        lastSnapshotTick = ticks;
+        savedChunks.set(0);
+        Minecraft.getInstance().execute(() -> WorldTree.takeAutoSnapshot(reason));
+    }
+}
@@ -0,0 +1,383 @@
+package com.buttfa.worldtree;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+// Content-addressed snapshot store shared by every node of a world tree.
+// Files are stored once under blobs/ keyed by their SHA-256, and each node keeps
+// a manifest mapping world-relative paths to those blobs. Region files are split
+// into one blob per chunk plus an index blob, so a branch that touched a few
+// chunks only adds those chunks to the store.
+class SnapshotStore {
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path treeDir;
+    private final Path blobsDir;
+    private final Path manifestsDir;
+    private final Path tmpDir;
+
+    // Manifest of a single node snapshot
+    static final class Manifest {
+        List<String> dirs = new ArrayList<>(); // Directories, including empty ones
+        Map<String, Entry> files = new LinkedHashMap<>(); // Relative path -> blob
+    }
+
+    // A single file in a manifest
+    static final class Entry {
+        long size;
+        long mtime; // Last modified time of the source file when captured
+        String blob;
+        boolean region; // blob is an AnvilRegion.Index rather than the file content
+        Long fingerprint; // XXH64 of the content of other files, null in older manifests
+    }
+
+    SnapshotStore(Path treeDir) {
+        this.treeDir = treeDir;
+        Path root = treeDir.resolve("store");
+        this.blobsDir = root.resolve("blobs");
+        this.manifestsDir = root.resolve("manifests");
+        this.tmpDir = root.resolve("tmp");
+    }
+
+    boolean hasManifest(String key) {
+        return Files.exists(manifestPath(key));
+    }
+
+    // Capture a world directory into the store under the given manifest key.
+    // When parentKey names an existing manifest, region chunks whose length and
+    // fingerprint match the parent's are taken over without storing them again, and
+    // whole region files that changes reports clean since the parent (may be null)
+    // without even reading them.
+    // Other files whose fingerprint matches the parent's are taken over as well, which
+    // only reads those changed since they were last fingerprinted.
+    void capture(Path worldDir, String key, String parentKey, DirtyChunkTracker.Changes changes,
+            LongConsumer progress) throws IOException {
+        Files.createDirectories(manifestsDir);
+        Manifest parent = parentKey != null && hasManifest(parentKey) ? readManifest(parentKey) : null;
+        FingerprintCache fingerprints = FingerprintCache.load(treeDir);
+        Manifest manifest = new Manifest();
+        List<Path> files = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        Files.walkFileTree(worldDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(worldDir)) {
+                    manifest.dirs.add(relativeName(worldDir, dir));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                attributes.add(attrs);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // Hash and store files in parallel, then build the manifest in walk order
+        Entry[] entries = new Entry[files.size()];
+        List<FileUtils.IOTask> tasks = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            int index = i;
+            tasks.add(() -> {
+                Path file = files.get(index);
+                BasicFileAttributes attrs = attributes.get(index);
+                String name = relativeName(worldDir, file);
+                Entry previous = parent != null ? parent.files.get(name) : null;
+                Entry entry = new Entry();
+                entry.size = attrs.size();
+                entry.mtime = attrs.lastModifiedTime().toMillis();
+                if (AnvilRegion.isRegionFile(file)) {
+                    if (previous != null && previous.region && changes != null && changes.isClean(name)
+                            && previous.size == entry.size && previous.mtime == entry.mtime) {
+                        // Not written since the parent's snapshot
+                        entry.blob = previous.blob;
+                    } else {
+                        entry.blob = storeRegion(file, previous != null && previous.region ? previous.blob : null);
+                    }
+                    entry.region = entry.blob != null;
+                }
+                if (entry.blob == null) {
+                    entry.fingerprint = fingerprints.fingerprint(file, name, attrs);
+                    if (previous != null && !previous.region && previous.size == entry.size
+                            && entry.fingerprint.equals(previous.fingerprint)) {
+                        // Same content as in the parent's snapshot
+                        entry.blob = previous.blob;
+                    } else {
+                        entry.blob = storeFile(file);
+                    }
+                }
+                entries[index] = entry;
+                progress.accept(entry.size);
+            });
+        }
+        FileUtils.runParallel(blobsDir, tasks);
+
+        for (int i = 0; i < entries.length; i++) {
+            manifest.files.put(relativeName(worldDir, files.get(i)), entries[i]);
+        }
+        writeManifest(key, manifest);
+        fingerprints.retain(manifest.files.keySet());
+        fingerprints.save();
+    }
+
+    // Rebuild a world directory from a manifest; the target must not exist yet
+    void restore(String key, Path targetDir, LongConsumer progress) throws IOException {
+        restore(key, targetDir, name -> true, progress);
+    }
+
+    // Rebuild the files of a manifest that include accepts, and every directory
+    void restore(String key, Path targetDir, Predicate<String> include, LongConsumer progress) throws IOException {
+        Manifest manifest = readManifest(key);
+        Files.createDirectories(targetDir);
+        for (String dir : manifest.dirs) {
+            Files.createDirectories(targetDir.resolve(dir));
+        }
+
+        List<FileUtils.IOTask> tasks = new ArrayList<>(manifest.files.size());
+        for (Map.Entry<String, Entry> file : manifest.files.entrySet()) {
+            if (!include.test(file.getKey())) {
+                continue;
+            }
+            Path dest = targetDir.resolve(file.getKey());
+            Entry entry = file.getValue();
+            tasks.add(() -> {
+                if (entry.region) {
+                    AnvilRegion.Index index = readRegionIndex(entry.blob);
+                    AnvilRegion.write(dest, index.timestamps,
+                            i -> index.chunks[i] != null ? Files.readAllBytes(blobPath(index.chunks[i])) : null);
+                } else {
+                    FileUtils.copyFile(blobPath(entry.blob), dest);
+                }
+                Files.setLastModifiedTime(dest, FileTime.fromMillis(entry.mtime));
+                progress.accept(entry.size);
+            });
+        }
+        FileUtils.runParallel(targetDir, tasks);
+    }
+
+    // Total size and number of files of the world captured by a manifest
+    FileUtils.Usage usageOf(String key) throws IOException {
+        Manifest manifest = readManifest(key);
+        long total = 0;
+        for (Entry entry : manifest.files.values()) {
+            total += entry.size;
+        }
+        return new FileUtils.Usage(total, manifest.files.size());
+    }
+
+    void deleteManifest(String key) throws IOException {
+        Files.deleteIfExists(manifestPath(key));
+    }
+
+    // Blobs no longer referenced by any manifest. Only valid until the next capture,
+    // which may start referring to an existing blob again; see SnapshotCollector.
+    List<Path> unreferencedBlobs() throws IOException {
+        List<Path> garbage = new ArrayList<>();
+        if (!Files.isDirectory(blobsDir)) {
+            return garbage;
+        }
+        Set<String> live = new HashSet<>();
+        if (Files.isDirectory(manifestsDir)) {
+            try (DirectoryStream<Path> manifests = Files.newDirectoryStream(manifestsDir, "*.json")) {
+                for (Path path : manifests) {
+                    for (Entry entry : readManifest(path).files.values()) {
+                        // Chunk blobs are only reachable through their region index
+                        if (live.add(entry.blob) && entry.region) {
+                            for (String chunk : readRegionIndex(entry.blob).chunks) {
+                                if (chunk != null) {
+                                    live.add(chunk);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        try (Stream<Path> blobs = Files.walk(blobsDir, 2)) {
+            for (Path blob : (Iterable<Path>) blobs.filter(Files::isRegularFile)::iterator) {
+                if (!live.contains(blob.getFileName().toString())) {
+                    garbage.add(blob);
+                }
+            }
+        }
+        return garbage;
+    }
+
+    Manifest readManifest(String key) throws IOException {
+        return readManifest(manifestPath(key));
+    }
+
+    private Manifest readManifest(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            Manifest manifest = GSON.fromJson(reader, Manifest.class);
+            if (manifest == null) {
+                throw new IOException("Empty snapshot manifest: " + path);
+            }
+            return manifest;
+        }
+    }
+
+    private void writeManifest(String key, Manifest manifest) throws IOException {
+        // Write next to the final file and move it in place so a crash never leaves
+        // a half-written manifest behind
+        Path target = manifestPath(key);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            GSON.toJson(manifest, writer);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Store a region file chunk by chunk and return the hash of its index blob, or
+    // null if the file is not a well-formed region file. Failures to read the file or
+    // to store its chunks are thrown.
+    private String storeRegion(Path file, String parentIndex) throws IOException {
+        AnvilRegion.Index previous = null;
+        if (parentIndex != null) {
+            try {
+                previous = readRegionIndex(parentIndex);
+            } catch (IOException e) {
+                // Damaged parent index, capture every chunk again
+            }
+        }
+
+        AnvilRegion.Index index = new AnvilRegion.Index();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            AnvilRegion.Header header = AnvilRegion.readHeader(channel);
+            for (int i = 0; i < AnvilRegion.CHUNK_COUNT; i++) {
+                int length = AnvilRegion.payloadLength(channel, header, i);
+                index.timestamps[i] = header.timestamps[i];
+                index.lengths[i] = length;
+                if (length == 0) {
+                    continue;
+                }
+                // Timestamps only have a resolution of a second, so a chunk saved twice
+                // within one may keep its timestamp and length with other content. The
+                // payload is compared by fingerprint, which spares hashing it with
+                // SHA-256 and looking up its blob when it is unchanged.
+                byte[] payload = AnvilRegion.readPayload(channel, header, i, length);
+                index.fingerprints[i] = XxHash64.hash(payload);
+                if (previous != null && previous.fingerprinted && previous.chunks[i] != null
+                        && previous.lengths[i] == length && previous.fingerprints[i] == index.fingerprints[i]) {
+                    index.chunks[i] = previous.chunks[i];
+                } else {
+                    index.chunks[i] = storeBytes(payload);
+                }
+            }
+        } catch (AnvilRegion.MalformedRegionException e) {
+            return null;
+        }
+        return storeBytes(index.toBytes());
+    }
+
+    private AnvilRegion.Index readRegionIndex(String hash) throws IOException {
+        return AnvilRegion.Index.fromBytes(Files.readAllBytes(blobPath(hash)));
+    }
+
+    // Store an in-memory blob unless an identical one already exists
+    private String storeBytes(byte[] data) throws IOException {
+        String hash = toHex(newDigest().digest(data));
+        Path blob = blobPath(hash);
+        if (Files.exists(blob)) {
+            return hash;
+        }
+
+        Files.createDirectories(blob.getParent());
+        Files.createDirectories(tmpDir);
+        Path temp = Files.createTempFile(tmpDir, hash, ".tmp");
+        try {
+            Files.write(temp, data);
+            Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return hash;
+    }
+
+    // Hash a file and copy it into the store unless an identical blob already exists
+    private String storeFile(Path file) throws IOException {
+        String hash = hash(file);
+        Path blob = blobPath(hash);
+        if (Files.exists(blob)) {
+            return hash;
+        }
+
+        Files.createDirectories(blob.getParent());
+        Files.createDirectories(tmpDir);
+        Path temp = Files.createTempFile(tmpDir, hash, ".tmp");
+        try {
+            // Blobs are immutable, so replacing one written concurrently is harmless
+            FileUtils.copyFile(file, temp);
+            Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return hash;
+    }
+
+    private Path blobPath(String hash) {
+        return blobsDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path manifestPath(String key) {
+        return manifestsDir.resolve(key + ".json");
+    }
+
+    static String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    // Manifest paths always use '/' so stores can be moved between platforms
+    private static String relativeName(Path root, Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,134 @@
+package com.buttfa.worldtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+// Layout of the world tree screen, kept up to date incrementally.
+// Node widths and subtree widths are cached per node, and every child stores the
+// offset of its center from its parent's center instead of an absolute position.
+// Expanding or collapsing a node changes its subtree width only, so the update
+// re-arranges the node and its ancestors until a subtree width stays the same; the
+// siblings' subtrees shift with their offsets without being touched. Absolute
+// positions are placed from the offsets while descending into the visible part of
+// the tree (see TreeViewport).
+final class TreeLayout {
+    static final int HORIZONTAL_SPACING = 20; // Horizontal spacing between nodes
+    static final int VERTICAL_SPACING = 30; // Vertical spacing between nodes
+    private static final int MARKER_WIDTH = 15; // Space for the expand/collapse marker
+
+    private final ToIntFunction<String> textWidth; // Font.width on screen, so benchmarks need no client
+
+    TreeLayout(ToIntFunction<String> textWidth) {
+        this.textWidth = textWidth;
+    }
+
+    // Lay out the whole tree, collapsed subtrees included so that expanding them
+    // later only touches their ancestors
+    void layout(WorldTree.TreeNode root) {
+        if (root != null) {
+            layoutSubtrees(List.of(root));
+        }
+    }
+
+    // Update the layout after node was expanded or collapsed, first laying out its
+    // children if they were only just loaded from storage
+    void toggled(WorldTree.TreeNode node, boolean loaded) {
+        if (loaded) {
+            layoutSubtrees(node.children);
+        }
+        for (WorldTree.TreeNode current = node; current != null; current = current.parent) {
+            int width = current.subtreeWidth;
+            int rows = current.subtreeRows;
+            arrange(current);
+            if (current.subtreeWidth == width && current.subtreeRows == rows) {
+                break;
+            }
+        }
+    }
+
+    private void layoutSubtrees(List<WorldTree.TreeNode> roots) {
+        // Pre-order, then arranged in reverse so that children come before parents
+        List<WorldTree.TreeNode> order = new ArrayList<>(roots);
+        for (int i = 0; i < order.size(); i++) {
+            WorldTree.TreeNode node = order.get(i);
+            measure(node);
+            order.addAll(node.children);
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            arrange(order.get(i));
+        }
+    }
+
+    // Bottom of the rows of a placed node's shown subtree
+    static int subtreeBottomY(WorldTree.TreeNode node) {
+        return node.getBottomY() + node.subtreeRows * (node.height + VERTICAL_SPACING);
+    }
+
+    // Bottom of a child's shown subtree, computed from its placed parent without
+    // placing the child
+    static int childSubtreeBottomY(WorldTree.TreeNode child) {
+        return childTopY(child.parent) + child.height + child.subtreeRows * (child.height + VERTICAL_SPACING);
+    }
+
+    // Position the root; the rest of the tree is placed relative to it
+    static void placeRoot(WorldTree.TreeNode root, int centerX, int y) {
+        if (root != null) {
+            root.x = centerX - root.width / 2;
+            root.y = y;
+        }
+    }
+
+    // Position a child from its parent, which must already be placed
+    static void place(WorldTree.TreeNode child) {
+        child.x = childCenterX(child) - child.width / 2;
+        child.y = childTopY(child.parent);
+    }
+
+    // Center of a child, computed from its placed parent without placing the child
+    static int childCenterX(WorldTree.TreeNode child) {
+        return child.parent.getCenterX() + child.relativeX;
+    }
+
+    // Top of the row of a placed node's children
+    static int childTopY(WorldTree.TreeNode node) {
+        return node.getBottomY() + VERTICAL_SPACING;
+    }
+
+    // Node width from its text and padding
+    private void measure(WorldTree.TreeNode node) {
+        node.width = textWidth.applyAsInt(node.displayName) + node.padding * 2;
+        if (node.hasChildren()) {
+            node.width += MARKER_WIDTH;
+        }
+    }
+
+    // Subtree extent of a node and the offsets of its children, which are laid out
+    // side by side and centered under it
+    private static void arrange(WorldTree.TreeNode node) {
+        List<WorldTree.TreeNode> children = node.children;
+        // Nodes left in storage count, though they are not shown
+        int size = 1 + (node.stub != null ? node.stub.subtreeSize : 0);
+        if (children.isEmpty()) {
+            node.subtreeWidth = node.width;
+            node.subtreeSize = size;
+            node.subtreeRows = 0;
+            return;
+        }
+        int total = HORIZONTAL_SPACING * (children.size() - 1);
+        int rows = 0;
+        for (WorldTree.TreeNode child : children) {
+            total += child.subtreeWidth;
+            size += child.subtreeSize;
+            rows = Math.max(rows, child.subtreeRows + 1);
+        }
+        node.subtreeSize = size;
+        node.subtreeRows = node.expanded ? rows : 0;
+        int childX = -(total / 2);
+        for (WorldTree.TreeNode child : children) {
+            child.relativeX = childX + child.subtreeWidth / 2;
+            childX += child.subtreeWidth + HORIZONTAL_SPACING;
+        }
+        node.subtreeWidth = node.expanded ? Math.max(node.width, total) : node.width;
+    }
+}
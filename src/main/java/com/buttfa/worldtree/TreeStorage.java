@@ -0,0 +1,921 @@
+package com.buttfa.worldtree;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// On-disk storage of a world tree: a binary snapshot (WorldTree.bin) plus an
+// append-only journal of the mutations made since (WorldTree.journal).
+// Every mutation appends one small record; once the journal outgrows the tree it is
+// folded into a new snapshot. Both files carry a generation number, so a journal
+// left over from before the last snapshot is recognised and ignored.
+// Nodes are stored in pre-order, each followed by the records of its subtree and
+// carrying their length, so a subtree's records do not depend on where they are.
+// Collapsed subtrees are left unread as stubs until expanded, and their records are
+// copied unchanged into the next snapshot. The dummy node and its ancestors are
+// always read.
+final class TreeStorage {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    static final String SNAPSHOT_FILE = "WorldTree.bin";
+    static final String JOURNAL_FILE = "WorldTree.journal";
+    static final String LEGACY_FILE = "WorldTree.json";
+
+    private static final int SNAPSHOT_MAGIC = 0x57545245; // "WTRE"
+    private static final int JOURNAL_MAGIC = 0x57544A4C; // "WTJL"
+    private static final int VERSION = 2;
+    private static final int JOURNAL_HEADER_SIZE = 12;
+    private static final int MIN_COMPACT_RECORDS = 256; // Journal records always allowed before compaction
+
+    // Journal record types
+    private static final byte ADD = 1;
+    private static final byte MOVE = 2;
+    private static final byte REMOVE = 3;
+    private static final byte EXPAND = 4;
+    private static final byte TRASH = 5;
+    private static final byte RECLAIM = 6;
+    private static final byte SPLICE = 7;
+
+    // Node record flags
+    private static final int EXPANDED = 1;
+    private static final int HOLDS_DUMMY = 2; // The dummy node is in the subtree
+    private static final int AUTO = 4; // Taken by SnapshotScheduler
+
+    final Path treeDir;
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private long generation;
+    private int records; // Records in the journal
+    private int nodeCount; // Nodes in the last snapshot
+
+    TreeStorage(Path treeDir) {
+        this.treeDir = treeDir;
+        this.snapshotFile = treeDir.resolve(SNAPSHOT_FILE);
+        this.journalFile = treeDir.resolve(JOURNAL_FILE);
+    }
+
+    // Children of a collapsed node left unread in the snapshot until it is expanded
+    static final class Stub {
+        final int childCount;
+        final int subtreeSize; // Nodes below the stubbed node
+        long offset; // Position of their records in the snapshot, moved by every write
+        final int length;
+
+        Stub(int childCount, int subtreeSize, long offset, int length) {
+            this.childCount = childCount;
+            this.subtreeSize = subtreeSize;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // Read the tree into nodes and trash and return its root, or null if nothing is
+    // stored yet. A tree only found in the legacy JSON file is migrated.
+    // Collapsed subtrees are stubbed unless the journal has to be replayed, as its
+    // records may refer to nodes anywhere; the journal is then folded into a new
+    // snapshot and the collapsed subtrees are unloaded again.
+    WorldTree.TreeNode load(Map<String, WorldTree.TreeNode> nodes, List<SnapshotCollector.Tombstone> trash)
+            throws IOException {
+        WorldTree.TreeNode root;
+        int version;
+        if (Files.exists(snapshotFile)) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+            version = readHeader(in);
+            root = readSnapshot(in, version, version == VERSION && !hasJournalRecords(), nodes, trash);
+        } else if (Files.exists(treeDir.resolve(LEGACY_FILE)) && Files.size(treeDir.resolve(LEGACY_FILE)) > 0) {
+            root = readLegacy(treeDir.resolve(LEGACY_FILE), nodes, trash);
+            if (root != null) {
+                write(root, trash, nodes);
+                LOGGER.info("Migrated world tree to {}", SNAPSHOT_FILE);
+            }
+            return root;
+        } else {
+            return null;
+        }
+        replayJournal(nodes, trash);
+        if (root != null && (records > 0 || version != VERSION)) {
+            write(root, trash, nodes);
+        }
+        return root;
+    }
+
+    // Read the unloaded children of a stubbed node. With lazy set, their collapsed
+    // subtrees become stubs in turn.
+    void loadChildren(WorldTree.TreeNode node, Map<String, WorldTree.TreeNode> nodes, boolean lazy)
+            throws IOException {
+        Stub stub = node.stub;
+        if (stub == null) {
+            return;
+        }
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            in = ByteBuffer.wrap(readRange(channel, stub.offset, stub.length));
+        }
+        // Children attached since the load, such as the dummy node, stay last
+        List<WorldTree.TreeNode> attached = new ArrayList<>(node.children);
+        node.children.clear();
+        try {
+            readNodes(in, stub.length, node, stub.offset, lazy, nodes);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated world tree snapshot: " + snapshotFile, e);
+        } finally {
+            node.children.addAll(attached);
+        }
+        node.stub = null;
+    }
+
+    // Read every stubbed subtree below node
+    void loadSubtree(WorldTree.TreeNode node, Map<String, WorldTree.TreeNode> nodes) throws IOException {
+        Deque<WorldTree.TreeNode> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            WorldTree.TreeNode current = stack.pop();
+            loadChildren(current, nodes, false);
+            for (WorldTree.TreeNode child : current.children) {
+                stack.push(child);
+            }
+        }
+    }
+
+    // Write the whole tree as a new snapshot and start an empty journal
+    void write(WorldTree.TreeNode root, Collection<SnapshotCollector.Tombstone> trash) throws IOException {
+        write(root, trash, null);
+    }
+
+    // Write the whole tree as a new snapshot, start an empty journal and unload the
+    // collapsed subtrees into stubs again, removing their nodes from nodes
+    void compact(WorldTree.TreeNode root, Collection<SnapshotCollector.Tombstone> trash,
+            Map<String, WorldTree.TreeNode> nodes) throws IOException {
+        write(root, trash, nodes);
+    }
+
+    // With nodes given, collapsed subtrees are also unloaded into stubs of the new
+    // snapshot and removed from nodes
+    private void write(WorldTree.TreeNode root, Collection<SnapshotCollector.Tombstone> trash,
+            Map<String, WorldTree.TreeNode> nodes) throws IOException {
+        Encoder out = new Encoder();
+        out.putInt(SNAPSHOT_MAGIC);
+        out.putInt(VERSION);
+        out.putLong(generation + 1);
+        int countAt = out.size();
+        out.putInt(0); // Node count
+        out.putInt(0); // Length of the node records
+
+        List<Frame> stubs = new ArrayList<>();
+        List<Frame> hidden = new ArrayList<>();
+        int count = writeNodes(out, root, stubs, hidden);
+        out.setInt(countAt, count);
+        out.setInt(countAt + 4, out.size() - countAt - 8);
+
+        out.putInt(trash.size());
+        for (SnapshotCollector.Tombstone tombstone : trash) {
+            out.putString(tombstone.folderName());
+            out.write(tombstone.format().ordinal());
+        }
+
+        replace(snapshotFile, out);
+        generation++;
+        nodeCount = count;
+
+        // Stubs now refer to their records in the new snapshot
+        for (Frame frame : stubs) {
+            frame.node.stub.offset = frame.descendantsAt;
+        }
+        if (nodes != null) {
+            for (Frame frame : hidden) {
+                unload(frame, nodes);
+            }
+        }
+        resetJournal();
+    }
+
+    // Whether the journal has grown enough to be folded into a new snapshot; keeping
+    // it below the tree size makes compaction cost O(1) per mutation on average
+    boolean needsCompaction() {
+        return records > Math.max(MIN_COMPACT_RECORDS, nodeCount);
+    }
+
+    Edit edit() {
+        return new Edit();
+    }
+
+    // Mutations appended to the journal together by commit
+    final class Edit {
+        private final Encoder out = new Encoder();
+        private int count;
+
+        Edit add(WorldTree.TreeNode node) {
+            Encoder record = begin(ADD);
+            record.putString(node.id);
+            record.putString(node.displayName);
+            record.putString(node.parent != null ? node.parent.id : null);
+            record.putLong(node.timestamp);
+            record.putString(node.folderName);
+            record.write(node.format.ordinal());
+            record.write(flags(node));
+            return end(record);
+        }
+
+        // The node was moved to the end of its current parent's children
+        Edit move(WorldTree.TreeNode node) {
+            Encoder record = begin(MOVE);
+            record.putString(node.id);
+            record.putString(node.parent.id);
+            return end(record);
+        }
+
+        // The node and its subtree were removed; the dummy node, if inside, moved to
+        // the node's parent
+        Edit remove(String id) {
+            Encoder record = begin(REMOVE);
+            record.putString(id);
+            return end(record);
+        }
+
+        // The node was removed and its children took its place in its parent
+        Edit splice(String id) {
+            Encoder record = begin(SPLICE);
+            record.putString(id);
+            return end(record);
+        }
+
+        Edit expand(WorldTree.TreeNode node) {
+            Encoder record = begin(EXPAND);
+            record.putString(node.id);
+            record.write(node.expanded ? 1 : 0);
+            return end(record);
+        }
+
+        Edit trash(SnapshotCollector.Tombstone tombstone) {
+            Encoder record = begin(TRASH);
+            record.putString(tombstone.folderName());
+            record.write(tombstone.format().ordinal());
+            return end(record);
+        }
+
+        Edit reclaim(SnapshotCollector.Tombstone tombstone) {
+            Encoder record = begin(RECLAIM);
+            record.putString(tombstone.folderName());
+            record.write(tombstone.format().ordinal());
+            return end(record);
+        }
+
+        // Append all records with a single write
+        void commit() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(out.buffer(), 0, out.size());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            records += count;
+        }
+
+        private Encoder begin(byte type) {
+            Encoder record = new Encoder();
+            record.write(type);
+            return record;
+        }
+
+        // Frame a record as length, payload, CRC32 of the payload
+        private Edit end(Encoder record) {
+            CRC32 crc = new CRC32();
+            crc.update(record.buffer(), 0, record.size());
+            out.putInt(record.size());
+            out.write(record.buffer(), 0, record.size());
+            out.putInt((int) crc.getValue());
+            count++;
+            return this;
+        }
+    }
+
+    // Pre-order, so every parent is written before its children; snapshots still
+    // being captured are left out until they are complete. Returns the node count.
+    private int writeNodes(Encoder out, WorldTree.TreeNode root, List<Frame> stubs, List<Frame> hidden)
+            throws IOException {
+        FileChannel source = null; // Old snapshot, for the records of stubs
+        try {
+            int count = 0;
+            Deque<Frame> stack = new ArrayDeque<>();
+            stack.push(putNode(out, root, hidden.size()));
+            while (!stack.isEmpty()) {
+                Frame frame = stack.peek();
+                WorldTree.TreeNode node = frame.node;
+                Stub stub = node.stub;
+                if (frame.next == 0 && stub != null && frame.childCount == 0) {
+                    // Unloaded children come first, as they were before any attached later
+                    if (source == null) {
+                        source = FileChannel.open(snapshotFile, StandardOpenOption.READ);
+                    }
+                    byte[] records = readRange(source, stub.offset, stub.length);
+                    out.write(records, 0, records.length);
+                    frame.childCount = stub.childCount;
+                    frame.subtreeSize = stub.subtreeSize;
+                    count += stub.subtreeSize;
+                    stubs.add(frame);
+                }
+                if (frame.next < node.children.size()) {
+                    WorldTree.TreeNode child = node.children.get(frame.next++);
+                    if (!child.pending) {
+                        stack.push(putNode(out, child, hidden.size()));
+                    }
+                    continue;
+                }
+
+                stack.pop();
+                count++;
+                out.setInt(frame.descendantsAt - 12, frame.childCount);
+                out.setInt(frame.descendantsAt - 8, frame.subtreeSize);
+                frame.length = out.size() - frame.descendantsAt;
+                out.setInt(frame.descendantsAt - 4, frame.length);
+                if (frame.holdsDummy) {
+                    out.setByte(frame.descendantsAt - 13, flags(node) | HOLDS_DUMMY);
+                } else if (!node.expanded && frame.childCount > 0 && stub == null) {
+                    // Only the topmost of nested collapsed subtrees is unloaded
+                    hidden.subList(frame.hiddenMark, hidden.size()).clear();
+                    hidden.add(frame);
+                }
+
+                Frame parent = stack.peek();
+                if (parent != null) {
+                    parent.childCount++;
+                    parent.subtreeSize += frame.subtreeSize + 1;
+                    parent.holdsDummy |= frame.holdsDummy || node.id.equals(WorldTree.DUMMY_NODE_ID);
+                }
+            }
+            return count;
+        } finally {
+            if (source != null) {
+                source.close();
+            }
+        }
+    }
+
+    // Node being written, with the totals of its subtree so far
+    private static final class Frame {
+        final WorldTree.TreeNode node;
+        final int descendantsAt; // Position of the records of its subtree
+        final int hiddenMark; // Collapsed subtrees found before this node
+        int next; // Next child to write
+        int childCount;
+        int subtreeSize;
+        int length; // Length of the records of its subtree
+        boolean holdsDummy;
+
+        Frame(WorldTree.TreeNode node, int descendantsAt, int hiddenMark) {
+            this.node = node;
+            this.descendantsAt = descendantsAt;
+            this.hiddenMark = hiddenMark;
+        }
+    }
+
+    // Write a node record with its subtree totals left to fill in
+    private static Frame putNode(Encoder out, WorldTree.TreeNode node, int hiddenMark) {
+        out.putString(node.id);
+        out.putString(node.displayName);
+        out.putLong(node.timestamp);
+        out.putString(node.folderName);
+        out.write(node.format.ordinal());
+        out.write(flags(node));
+        out.putInt(0); // Child count
+        out.putInt(0); // Nodes in the subtree
+        out.putInt(0); // Length of the subtree's records
+        return new Frame(node, out.size(), hiddenMark);
+    }
+
+    // Replace a written collapsed subtree by a stub
+    private static void unload(Frame frame, Map<String, WorldTree.TreeNode> nodes) {
+        WorldTree.TreeNode node = frame.node;
+        Deque<WorldTree.TreeNode> stack = new ArrayDeque<>(node.children);
+        while (!stack.isEmpty()) {
+            WorldTree.TreeNode current = stack.pop();
+            nodes.remove(current.id);
+            stack.addAll(current.children);
+        }
+        node.children.clear();
+        node.stub = new Stub(frame.childCount, frame.subtreeSize, frame.descendantsAt, frame.length);
+    }
+
+    // Check the snapshot header and return its version
+    private int readHeader(ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a world tree snapshot: " + snapshotFile);
+            }
+            int version = in.getInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported world tree snapshot version " + version);
+            }
+            generation = in.getLong();
+            return version;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated world tree snapshot: " + snapshotFile, e);
+        }
+    }
+
+    private WorldTree.TreeNode readSnapshot(ByteBuffer in, int version, boolean lazy,
+            Map<String, WorldTree.TreeNode> nodes, List<SnapshotCollector.Tombstone> trash) throws IOException {
+        try {
+            int count = in.getInt();
+            WorldTree.TreeNode root;
+            if (version == 1) {
+                root = readNodesV1(in, count, nodes);
+            } else {
+                int length = in.getInt();
+                root = readNodes(in, in.position() + length, null, 0, lazy, nodes);
+            }
+
+            int trashCount = in.getInt();
+            for (int i = 0; i < trashCount; i++) {
+                trash.add(new SnapshotCollector.Tombstone(getString(in), format(in.get())));
+            }
+            nodeCount = count;
+            return root;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated world tree snapshot: " + snapshotFile, e);
+        }
+    }
+
+    // Read node records up to end and attach them below parent, or return the first as
+    // the root if there is none. With lazy set, collapsed subtrees that do not hold the
+    // dummy node become stubs; base is the snapshot position of the buffer's start.
+    private WorldTree.TreeNode readNodes(ByteBuffer in, int end, WorldTree.TreeNode parent, long base,
+            boolean lazy, Map<String, WorldTree.TreeNode> nodes) throws IOException {
+        WorldTree.TreeNode first = null;
+        // Open ancestors of the next record and where their subtrees end
+        WorldTree.TreeNode[] open = new WorldTree.TreeNode[16];
+        int[] ends = new int[16];
+        int depth = 0;
+        while (in.position() < end) {
+            while (depth > 0 && ends[depth - 1] <= in.position()) {
+                depth--;
+            }
+            WorldTree.TreeNode node = new WorldTree.TreeNode(getString(in), getString(in));
+            node.timestamp = in.getLong();
+            node.folderName = getString(in);
+            node.format = format(in.get());
+            int flags = in.get();
+            node.expanded = (flags & EXPANDED) != 0;
+            node.auto = (flags & AUTO) != 0;
+            int childCount = in.getInt();
+            int subtreeSize = in.getInt();
+            int length = in.getInt();
+            int subtreeEnd = in.position() + length;
+            if (length < 0 || subtreeEnd > (depth > 0 ? ends[depth - 1] : end)) {
+                throw new IOException("Corrupt world tree snapshot: subtree overruns its parent");
+            }
+
+            WorldTree.TreeNode owner = depth > 0 ? open[depth - 1] : parent;
+            if (owner != null) {
+                attach(owner, node);
+            } else if (first != null) {
+                throw new IOException("Corrupt world tree snapshot: more than one root");
+            }
+            if (first == null) {
+                first = node;
+            }
+            nodes.put(node.id, node);
+
+            if (childCount == 0) {
+                continue;
+            }
+            if (lazy && !node.expanded && (flags & HOLDS_DUMMY) == 0) {
+                node.stub = new Stub(childCount, subtreeSize, base + in.position(), length);
+                in.position(subtreeEnd);
+            } else {
+                if (depth == open.length) {
+                    open = Arrays.copyOf(open, depth * 2);
+                    ends = Arrays.copyOf(ends, depth * 2);
+                }
+                open[depth] = node;
+                ends[depth] = subtreeEnd;
+                depth++;
+            }
+        }
+        return first;
+    }
+
+    // Records of the first version: nodes in pre-order, each with its parent's index
+    private static WorldTree.TreeNode readNodesV1(ByteBuffer in, int count, Map<String, WorldTree.TreeNode> nodes)
+            throws IOException {
+        WorldTree.TreeNode[] order = new WorldTree.TreeNode[count];
+        for (int i = 0; i < count; i++) {
+            WorldTree.TreeNode node = new WorldTree.TreeNode(getString(in), getString(in));
+            int parent = in.getInt();
+            node.timestamp = in.getLong();
+            node.folderName = getString(in);
+            node.format = format(in.get());
+            node.expanded = in.get() != 0;
+            if (parent >= 0) {
+                if (parent >= i) {
+                    throw new IOException("Corrupt world tree snapshot: parent after child");
+                }
+                attach(order[parent], node);
+            }
+            order[i] = node;
+            nodes.put(node.id, node);
+        }
+        return count > 0 ? order[0] : null;
+    }
+
+    // Whether the journal holds records for the current snapshot
+    private boolean hasJournalRecords() throws IOException {
+        if (!Files.exists(journalFile) || Files.size(journalFile) <= JOURNAL_HEADER_SIZE) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.wrap(readRange(channel, 0, JOURNAL_HEADER_SIZE));
+            return header.getInt() == JOURNAL_MAGIC && header.getLong() == generation;
+        }
+    }
+
+    private byte[] readRange(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Truncated world tree snapshot: " + snapshotFile);
+            }
+        }
+        return buffer.array();
+    }
+
+    // Apply the journal records written since the snapshot. A torn record at the
+    // end, left by a crash during an append, is cut off.
+    private void replayJournal(Map<String, WorldTree.TreeNode> nodes, List<SnapshotCollector.Tombstone> trash)
+            throws IOException {
+        records = 0;
+        ByteBuffer in = Files.exists(journalFile) ? ByteBuffer.wrap(Files.readAllBytes(journalFile)) : null;
+        if (in == null || in.remaining() < JOURNAL_HEADER_SIZE || in.getInt() != JOURNAL_MAGIC
+                || in.getLong() != generation) {
+            // Missing, or already folded into the snapshot
+            resetJournal();
+            return;
+        }
+
+        int valid = in.position();
+        while (in.remaining() >= 4) {
+            int length = in.getInt();
+            if (length <= 0 || in.remaining() < length + 4) {
+                break;
+            }
+            ByteBuffer record = in.slice(in.position(), length);
+            CRC32 crc = new CRC32();
+            crc.update(record.duplicate());
+            in.position(in.position() + length);
+            if (in.getInt() != (int) crc.getValue()) {
+                break;
+            }
+            apply(record, nodes, trash);
+            records++;
+            valid = in.position();
+        }
+
+        if (valid < in.limit()) {
+            LOGGER.warn("Discarding {} bytes of incomplete world tree journal", in.limit() - valid);
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    private static void apply(ByteBuffer in, Map<String, WorldTree.TreeNode> nodes,
+            List<SnapshotCollector.Tombstone> trash) {
+        byte type = in.get();
+        switch (type) {
+            case ADD -> {
+                WorldTree.TreeNode node = new WorldTree.TreeNode(getString(in), getString(in));
+                WorldTree.TreeNode parent = nodes.get(getString(in));
+                node.timestamp = in.getLong();
+                node.folderName = getString(in);
+                node.format = format(in.get());
+                int flags = in.get();
+                node.expanded = (flags & EXPANDED) != 0;
+                node.auto = (flags & AUTO) != 0;
+                if (parent != null) {
+                    attach(parent, node);
+                    nodes.put(node.id, node);
+                } else {
+                    LOGGER.warn("Parent node not found for journaled node {}", node.id);
+                }
+            }
+            case MOVE -> {
+                WorldTree.TreeNode node = nodes.get(getString(in));
+                WorldTree.TreeNode parent = nodes.get(getString(in));
+                if (node != null && parent != null) {
+                    detach(node);
+                    attach(parent, node);
+                }
+            }
+            case REMOVE -> {
+                WorldTree.TreeNode node = nodes.get(getString(in));
+                if (node == null || node.parent == null) {
+                    return;
+                }
+                WorldTree.TreeNode parent = node.parent;
+                detach(node);
+                Deque<WorldTree.TreeNode> stack = new ArrayDeque<>();
+                stack.push(node);
+                while (!stack.isEmpty()) {
+                    WorldTree.TreeNode current = stack.pop();
+                    if (current.id.equals(WorldTree.DUMMY_NODE_ID)) {
+                        detach(current);
+                        attach(parent, current);
+                        continue;
+                    }
+                    nodes.remove(current.id);
+                    for (WorldTree.TreeNode child : current.children) {
+                        stack.push(child);
+                    }
+                }
+            }
+            case SPLICE -> {
+                WorldTree.TreeNode node = nodes.get(getString(in));
+                if (node != null && node.parent != null) {
+                    splice(node);
+                    nodes.remove(node.id);
+                }
+            }
+            case EXPAND -> {
+                WorldTree.TreeNode node = nodes.get(getString(in));
+                boolean expanded = in.get() != 0;
+                if (node != null) {
+                    node.expanded = expanded;
+                }
+            }
+            case TRASH -> trash.add(new SnapshotCollector.Tombstone(getString(in), format(in.get())));
+            case RECLAIM -> trash.remove(new SnapshotCollector.Tombstone(getString(in), format(in.get())));
+            default -> LOGGER.warn("Unknown world tree journal record {}", type);
+        }
+    }
+
+    // Tree files written before the binary format: {"nodes": {id: {...}}, "trash": [...]}.
+    // Nodes are built in a single streaming pass; parents are linked afterwards through
+    // an index sized for every node, since a child may come before its parent.
+    static WorldTree.TreeNode readLegacy(Path file, Map<String, WorldTree.TreeNode> nodes,
+            List<SnapshotCollector.Tombstone> trash) throws IOException {
+        List<WorldTree.TreeNode> order = new ArrayList<>();
+        List<String> parentIds = new ArrayList<>();
+        boolean hasNodes = false;
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "nodes" -> {
+                        hasNodes = true;
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            readLegacyNode(reader, reader.nextName(), order, parentIds);
+                        }
+                        reader.endObject();
+                    }
+                    case "trash" -> {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            trash.add(readLegacyTombstone(reader));
+                        }
+                        reader.endArray();
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed world tree file: " + e.getMessage(), e);
+        }
+        if (!hasNodes) {
+            return null;
+        }
+
+        Map<String, WorldTree.TreeNode> index = new HashMap<>((int) (order.size() / 0.75f) + 1);
+        for (WorldTree.TreeNode node : order) {
+            index.put(node.id, node);
+        }
+        for (int i = 0; i < order.size(); i++) {
+            String parentId = parentIds.get(i);
+            if (parentId != null && !parentId.isEmpty()) {
+                WorldTree.TreeNode parent = index.get(parentId);
+                if (parent != null) {
+                    attach(parent, order.get(i));
+                } else {
+                    LOGGER.warn("Parent node {} not found for {}", parentId, order.get(i).id);
+                }
+            }
+        }
+        // Depths were only final once every ancestor was attached
+        for (WorldTree.TreeNode node : order) {
+            if (node.parent == null) {
+                updateDepths(node);
+            }
+        }
+        nodes.putAll(index);
+        return index.get("root");
+    }
+
+    private static void readLegacyNode(JsonReader reader, String id, List<WorldTree.TreeNode> order,
+            List<String> parentIds) throws IOException {
+        String displayName = null;
+        String parentId = null;
+        String folderName = null;
+        String format = null;
+        boolean expanded = true;
+        Long timestamp = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "displayName" -> displayName = reader.nextString();
+                case "parentId" -> parentId = reader.nextString();
+                case "folderName" -> folderName = reader.nextString();
+                case "format" -> format = reader.nextString();
+                case "expanded" -> expanded = reader.nextBoolean();
+                // Written as a long, but read back as a double by older versions
+                case "timestamp" -> timestamp = (long) reader.nextDouble();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        WorldTree.TreeNode node = new WorldTree.TreeNode(id, displayName);
+        node.expanded = expanded;
+        if (timestamp != null) {
+            node.timestamp = timestamp;
+        }
+        node.folderName = folderName;
+        node.format = SnapshotFormat.fromName(format);
+        order.add(node);
+        parentIds.add(parentId);
+    }
+
+    private static SnapshotCollector.Tombstone readLegacyTombstone(JsonReader reader) throws IOException {
+        String folderName = null;
+        String format = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (field.equals("folderName")) {
+                folderName = reader.nextString();
+            } else if (field.equals("format")) {
+                format = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SnapshotCollector.Tombstone(folderName, SnapshotFormat.fromName(format));
+    }
+
+    private static void updateDepths(WorldTree.TreeNode root) {
+        Deque<WorldTree.TreeNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            WorldTree.TreeNode node = stack.pop();
+            for (WorldTree.TreeNode child : node.children) {
+                child.depth = node.depth + 1;
+                stack.push(child);
+            }
+        }
+    }
+
+    private void resetJournal() throws IOException {
+        Encoder out = new Encoder();
+        out.putInt(JOURNAL_MAGIC);
+        out.putLong(generation);
+        replace(journalFile, out);
+        records = 0;
+    }
+
+    // Write next to the target and move it in place, so a crash leaves either the
+    // old or the new file
+    private static void replace(Path target, Encoder content) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.buffer(), 0, content.size());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Attach without TreeNode.addChild, which would reset the stored timestamp
+    private static void attach(WorldTree.TreeNode parent, WorldTree.TreeNode child) {
+        parent.children.add(child);
+        child.parent = parent;
+        child.depth = parent.depth + 1;
+    }
+
+    // Replace a node by its children in its parent's children
+    static void splice(WorldTree.TreeNode node) {
+        WorldTree.TreeNode parent = node.parent;
+        int index = parent.children.indexOf(node);
+        parent.children.remove(index);
+        for (WorldTree.TreeNode child : node.children) {
+            child.parent = parent;
+            child.depth = parent.depth + 1;
+        }
+        parent.children.addAll(index, node.children);
+        node.children.clear();
+        node.parent = null;
+    }
+
+    private static void detach(WorldTree.TreeNode node) {
+        if (node.parent != null) {
+            node.parent.children.remove(node);
+            node.parent = null;
+        }
+    }
+
+    private static int flags(WorldTree.TreeNode node) {
+        return (node.expanded ? EXPANDED : 0) | (node.auto ? AUTO : 0);
+    }
+
+    private static SnapshotFormat format(int ordinal) {
+        SnapshotFormat[] formats = SnapshotFormat.values();
+        return ordinal >= 0 && ordinal < formats.length ? formats[ordinal] : SnapshotFormat.COPY;
+    }
+
+    // Strings are a length (-1 for null) followed by UTF-8 bytes
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    // Growable buffer with big-endian writers matching ByteBuffer's readers
+    private static final class Encoder extends ByteArrayOutputStream {
+        void putInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void putLong(long value) {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        // Overwrite a value written earlier
+        void setInt(int position, int value) {
+            buf[position] = (byte) (value >>> 24);
+            buf[position + 1] = (byte) (value >>> 16);
+            buf[position + 2] = (byte) (value >>> 8);
+            buf[position + 3] = (byte) value;
+        }
+
+        void setByte(int position, int value) {
+            buf[position] = (byte) value;
+        }
+    }
+}
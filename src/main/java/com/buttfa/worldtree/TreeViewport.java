@@ -0,0 +1,204 @@
+package com.buttfa.worldtree;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+// Culls the laid-out tree against the part of it visible on screen.
+// Every subtree lies within the band of its subtreeWidth around its node's center,
+// between its node's top and the bottom of its subtreeRows, and siblings are laid out
+// left to right without overlapping. The tree is therefore its own spatial index: a
+// search only descends into subtrees whose box meets the viewport and finds the
+// children in the horizontal range by binary search, so it costs about the number of
+// visible nodes rather than the size of the tree.
+// Nodes are placed from their parents' positions (see TreeLayout) as the search
+// reaches them, so only the root needs to be placed beforehand. When zoomed far out,
+// expanded subtrees narrower than a few pixels are reported as aggregates instead of
+// being descended into, which bounds the work by the screen area.
+final class TreeViewport {
+    private int left, top, right, bottom; // Visible area in layout coordinates
+    private int slack; // Rounding error of the integer layout and screen transform
+    private boolean curvedEdges; // Edges are drawn as curves within their bounding box
+    private float zoom;
+    private int aggregateWidth; // Subtrees narrower than this are aggregated, 0 for none
+    private final Deque<WorldTree.TreeNode> stack = new ArrayDeque<>(); // Reused every frame
+
+    // Visible area for the screen transform screen = (layout - offset) * zoom
+    void set(double offsetX, double offsetY, float zoom, int screenWidth, int screenHeight, boolean curvedEdges) {
+        this.curvedEdges = curvedEdges;
+        this.zoom = zoom;
+        aggregateWidth = 0;
+        slack = (int) Math.ceil(1 / zoom) + 1;
+        left = (int) Math.floor(offsetX) - slack;
+        top = (int) Math.floor(offsetY) - slack;
+        right = (int) Math.ceil(offsetX + screenWidth / zoom) + slack;
+        bottom = (int) Math.ceil(offsetY + screenHeight / zoom) + slack;
+    }
+
+    // Aggregate expanded subtrees narrower than the given number of screen pixels
+    void aggregateBelow(float pixels) {
+        aggregateWidth = (int) Math.ceil(pixels / zoom);
+    }
+
+    // Add the nodes, the edges (identified by their child node) and the aggregated
+    // subtrees that intersect the viewport
+    void collect(WorldTree.TreeNode root, List<WorldTree.TreeNode> nodes, List<WorldTree.TreeNode> edges,
+            List<WorldTree.TreeNode> aggregates) {
+        if (root == null || bandRight(root) < left || bandLeft(root) > right || root.getTopY() > bottom
+                || TreeLayout.subtreeBottomY(root) < top) {
+            return;
+        }
+        stack.clear();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            WorldTree.TreeNode node = stack.pop();
+            if (isAggregated(node)) {
+                if (TreeLayout.subtreeBottomY(node) >= top) {
+                    aggregates.add(node);
+                }
+                continue;
+            }
+            if (node.x + node.width >= left && node.x <= right && node.getBottomY() >= top) {
+                nodes.add(node);
+            }
+            if (!node.expanded || node.children.isEmpty()) {
+                continue;
+            }
+
+            List<WorldTree.TreeNode> children = node.children;
+            int rowY = TreeLayout.childTopY(node);
+
+            // Edges run from the node's bottom center to each child's top center; at
+            // any height their x grows with the child index
+            int y1 = Math.max(top, node.getBottomY());
+            int y2 = Math.min(bottom, rowY);
+            if (y1 <= y2) {
+                int from = firstEdge(node, y1, y2);
+                for (int i = from; i < children.size(); i++) {
+                    WorldTree.TreeNode child = children.get(i);
+                    if (edgeMin(node, child, y1, y2) > right) {
+                        break;
+                    }
+                    TreeLayout.place(child);
+                    edges.add(child);
+                }
+            }
+
+            if (rowY <= bottom) {
+                for (int i = firstBand(children, left); i < children.size(); i++) {
+                    WorldTree.TreeNode child = children.get(i);
+                    if (bandLeft(child) > right) {
+                        break;
+                    }
+                    // Shallow subtrees scrolled past above hold nothing visible
+                    if (TreeLayout.childSubtreeBottomY(child) < top) {
+                        continue;
+                    }
+                    TreeLayout.place(child);
+                    stack.push(child);
+                }
+            }
+        }
+    }
+
+    // Node whose box contains the layout point, or null. Only tests nodes on the
+    // path from the root down to the subtree band containing the point.
+    WorldTree.TreeNode nodeAt(WorldTree.TreeNode root, int x, int y) {
+        WorldTree.TreeNode node = root;
+        while (node != null) {
+            if (isAggregated(node)) {
+                // The whole block stands for the subtree
+                return x >= bandLeft(node) && x <= bandRight(node) && y >= node.getTopY() - slack
+                        && y <= TreeLayout.subtreeBottomY(node) + slack ? node : null;
+            }
+            if (x >= node.x - slack && x <= node.x + node.width + slack
+                    && y >= node.getTopY() - slack && y <= node.getBottomY() + slack) {
+                return node;
+            }
+            if (!node.expanded || node.children.isEmpty() || y < TreeLayout.childTopY(node) - slack) {
+                return null;
+            }
+            int i = firstBand(node.children, x);
+            node = i < node.children.size() && bandLeft(node.children.get(i)) <= x ? node.children.get(i) : null;
+            if (node != null) {
+                TreeLayout.place(node);
+            }
+        }
+        return null;
+    }
+
+    boolean isAggregated(WorldTree.TreeNode node) {
+        return node.subtreeWidth < aggregateWidth && node.expanded && !node.children.isEmpty();
+    }
+
+    // First child whose band reaches x
+    private int firstBand(List<WorldTree.TreeNode> children, int x) {
+        int low = 0;
+        int high = children.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bandRight(children.get(mid)) < x) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First child whose edge from node reaches the viewport's left side between y1 and y2
+    private int firstEdge(WorldTree.TreeNode node, int y1, int y2) {
+        List<WorldTree.TreeNode> children = node.children;
+        int low = 0;
+        int high = children.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            WorldTree.TreeNode child = children.get(mid);
+            if (edgeMax(node, child, y1, y2) < left) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Horizontal extent of the edge between node and child within heights y1 to y2;
+    // like the edges themselves it grows with the child index
+    private int edgeMin(WorldTree.TreeNode node, WorldTree.TreeNode child, int y1, int y2) {
+        return curvedEdges
+                ? Math.min(node.getCenterX(), TreeLayout.childCenterX(child))
+                : Math.min(edgeX(node, child, y1), edgeX(node, child, y2));
+    }
+
+    private int edgeMax(WorldTree.TreeNode node, WorldTree.TreeNode child, int y1, int y2) {
+        return curvedEdges
+                ? Math.max(node.getCenterX(), TreeLayout.childCenterX(child))
+                : Math.max(edgeX(node, child, y1), edgeX(node, child, y2));
+    }
+
+    // X of the straight edge between node and child at height y
+    private static int edgeX(WorldTree.TreeNode node, WorldTree.TreeNode child, int y) {
+        int x1 = node.getCenterX();
+        int y1 = node.getBottomY();
+        int x2 = TreeLayout.childCenterX(child);
+        int y2 = TreeLayout.childTopY(node);
+        if (y2 == y1) {
+            return x2;
+        }
+        return x1 + (int) ((long) (x2 - x1) * (y - y1) / (y2 - y1));
+    }
+
+    // Bands of children are computed from their parent, before they are placed
+    private int bandLeft(WorldTree.TreeNode node) {
+        return centerX(node) - node.subtreeWidth / 2 - slack;
+    }
+
+    private int bandRight(WorldTree.TreeNode node) {
+        return centerX(node) + (node.subtreeWidth + 1) / 2 + slack;
+    }
+
+    private static int centerX(WorldTree.TreeNode node) {
+        return node.parent == null ? node.getCenterX() : TreeLayout.childCenterX(node);
+    }
+}
@@ -0,0 +1,236 @@
+package com.buttfa.worldtree;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Replaces a world directory with a node's snapshot. Restores are built inside
+// <world>-WorldTree, on the same filesystem as the world, so they can be swapped in
+// with renames; the current world stays intact until the restore is complete.
+// Where the snapshot lists its files with their modification times and no server
+// has the world open, only the files that differ from the current world are
+// restored and renamed over it, so switching between nearby branches costs I/O in
+// proportion to their difference. A running server may hold region files open or
+// write new ones, so it only ever sees the world swapped as a whole.
+// Runs on the snapshot thread, see WorldTree.switchWorld.
+final class WorldSwitch {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    static final String STAGING_DIR = ".restore-staging"; // Restore in progress
+    static final String READY_DIR = ".restore-ready"; // Restore finished, not swapped in yet
+    static final String OLD_DIR_PREFIX = ".restore-old-"; // Replaced world awaiting deletion
+    static final String PATCH_DIR = ".restore-patch"; // Changed files staged, being moved into the world
+    static final String PLAN_FILE = ".restore-plan"; // In PATCH_DIR: directories to add, entries to remove
+    private static final String SESSION_LOCK = "session.lock"; // Held by the running server, left alone
+
+    private WorldSwitch() {
+    }
+
+    // Restore the node's snapshot over targetDir. Returns the replaced world, moved
+    // into the tree directory for the caller to delete, or null if there was none or
+    // it was updated in place; closed tells whether no server has targetDir open.
+    static Path restore(Path treeDir, WorldTree.TreeNode node, Path targetDir, boolean closed,
+            SnapshotJobs.Progress progress) throws IOException {
+        if (!node.format.exists(treeDir, node)) {
+            throw new IOException("Node snapshot not found: " + node.folderName);
+        }
+
+        Path staging = treeDir.resolve(STAGING_DIR);
+        Path ready = treeDir.resolve(READY_DIR);
+        for (Path leftover : List.of(staging, ready, treeDir.resolve(PATCH_DIR))) {
+            if (Files.exists(leftover)) {
+                FileUtils.deleteDirectory(leftover);
+            }
+        }
+
+        SnapshotFormat.Listing listing = closed && Files.isDirectory(targetDir)
+                ? node.format.list(treeDir, node)
+                : null;
+        if (listing != null) {
+            patch(treeDir, node, listing, targetDir, progress);
+            return null;
+        }
+
+        // Build the node world next to the current one
+        node.format.restore(treeDir, node, staging, progress);
+        Files.move(staging, ready, StandardCopyOption.ATOMIC_MOVE);
+
+        // Swap it in with two renames and delete the replaced world afterwards
+        Path old = treeDir.resolve(OLD_DIR_PREFIX + System.currentTimeMillis());
+        if (Files.exists(targetDir)) {
+            Files.move(targetDir, old, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(ready, targetDir, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Restored node world to current: {}", targetDir);
+        return Files.exists(old) ? old : null;
+    }
+
+    // Whether dir holds a patch whose files are complete, which must be applied
+    static boolean isPatch(Path dir) {
+        return Files.isRegularFile(dir.resolve(PLAN_FILE));
+    }
+
+    // Move the staged files of a patch over the world and carry out its plan. Every
+    // step can be repeated, so a patch interrupted by a crash is completed by applying
+    // it again; the plan is removed last.
+    static void apply(Path patch, Path world) throws IOException {
+        Path planFile = patch.resolve(PLAN_FILE);
+        List<String> plan = Files.readAllLines(planFile, StandardCharsets.UTF_8);
+        for (String line : plan) {
+            if (line.startsWith("+")) {
+                Files.createDirectories(world.resolve(line.substring(1)));
+            }
+        }
+
+        Files.walkFileTree(patch, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!file.equals(planFile)) {
+                    Path dest = world.resolve(patch.relativize(file).toString());
+                    Files.move(file, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // Files come before the directories holding them
+        for (String line : plan) {
+            if (line.startsWith("-")) {
+                try {
+                    Files.deleteIfExists(world.resolve(line.substring(1)));
+                } catch (DirectoryNotEmptyException e) {
+                    LOGGER.warn("Kept directory written during the world switch: {}", e.getFile());
+                }
+            }
+        }
+        Files.delete(planFile);
+        FileUtils.deleteDirectory(patch);
+    }
+
+    // Update targetDir to the listed snapshot, restoring only the files that differ
+    private static void patch(Path treeDir, WorldTree.TreeNode node, SnapshotFormat.Listing listing, Path targetDir,
+            SnapshotJobs.Progress progress) throws IOException {
+        Map<String, BasicFileAttributes> files = new HashMap<>();
+        Set<String> dirs = new HashSet<>();
+        Files.walkFileTree(targetDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(targetDir)) {
+                    dirs.add(relativeName(targetDir, dir));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.put(relativeName(targetDir, file), attrs);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        files.remove(SESSION_LOCK);
+
+        // Compare by metadata, then by fingerprint in parallel where that is undecided
+        FingerprintCache fingerprints = FingerprintCache.load(treeDir);
+        Set<String> changed = ConcurrentHashMap.newKeySet();
+        List<FileUtils.IOTask> comparisons = new ArrayList<>();
+        for (Map.Entry<String, SnapshotFormat.FileState> file : listing.files().entrySet()) {
+            String name = file.getKey();
+            SnapshotFormat.FileState state = file.getValue();
+            BasicFileAttributes attrs = files.remove(name);
+            if (name.equals(SESSION_LOCK)) {
+                continue;
+            }
+            if (attrs == null || attrs.size() != state.size()) {
+                changed.add(name);
+            } else if (attrs.lastModifiedTime().toMillis() != state.mtime()) {
+                comparisons.add(() -> {
+                    if (!matches(targetDir.resolve(name), name, attrs, state, fingerprints)) {
+                        changed.add(name);
+                    }
+                });
+            }
+        }
+        FileUtils.runParallel(targetDir, comparisons);
+        long bytes = 0;
+        for (String name : changed) {
+            bytes += listing.files().get(name).size();
+        }
+
+        // What is left of the current world is not in the snapshot
+        List<String> plan = new ArrayList<>();
+        for (String dir : listing.dirs()) {
+            if (!dirs.contains(dir)) {
+                plan.add("+" + dir);
+            }
+        }
+        for (String file : files.keySet()) {
+            plan.add("-" + file);
+        }
+        List<String> removedDirs = new ArrayList<>(dirs);
+        removedDirs.removeAll(listing.dirs());
+        removedDirs.sort(Comparator.reverseOrder()); // Subdirectories first
+        for (String dir : removedDirs) {
+            plan.add("-" + dir);
+        }
+
+        // Stage the changed files, then move them in with renames
+        Path staging = treeDir.resolve(STAGING_DIR);
+        progress.setTotal(new FileUtils.Usage(bytes, changed.size()));
+        node.format.restoreFiles(treeDir, node, staging, changed::contains, progress);
+        Files.createDirectories(staging);
+        Files.write(staging.resolve(PLAN_FILE), plan, StandardCharsets.UTF_8);
+        Path patch = treeDir.resolve(PATCH_DIR);
+        Files.move(staging, patch, StandardCopyOption.ATOMIC_MOVE);
+        apply(patch, targetDir);
+
+        // The restored files hold the snapshot's content, known without reading them
+        for (String name : changed) {
+            SnapshotFormat.FileState state = listing.files().get(name);
+            if (state.fingerprint() != null) {
+                fingerprints.put(name, state.size(), state.mtime(), state.fingerprint());
+            }
+        }
+        fingerprints.retain(listing.files().keySet());
+        fingerprints.save();
+        LOGGER.info("Restored node world in place: {}, {} of {} files rewritten, {} removed", targetDir,
+                changed.size(), listing.files().size(), files.size());
+    }
+
+    // Whether a file of the current world with the snapshot's size but another
+    // modification time holds the snapshot's content. Equal size and time are taken as
+    // equal content, as rsync does: restores keep the snapshot's times, so files the
+    // game has not written since still match. Otherwise the fingerprints are compared
+    // where the snapshot records one, and a match is given the snapshot's time so the
+    // next switch finds it by metadata alone.
+    private static boolean matches(Path file, String name, BasicFileAttributes attrs, SnapshotFormat.FileState state,
+            FingerprintCache fingerprints) throws IOException {
+        if (state.fingerprint() == null || fingerprints.fingerprint(file, name, attrs) != state.fingerprint()) {
+            return false;
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(state.mtime()));
+        fingerprints.put(name, state.size(), state.mtime(), state.fingerprint());
+        return true;
+    }
+
+    private static String relativeName(Path root, Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+}
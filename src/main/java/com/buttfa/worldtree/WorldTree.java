@@ -1,14 +1,15 @@
 package com.buttfa.worldtree;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.mojang.logging.LogUtils;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.components.Button;
 import net.minecraft.client.gui.components.events.GuiEventListener;
+import net.minecraft.client.gui.screens.GenericMessageScreen;
 import net.minecraft.client.gui.screens.PauseScreen;
+import net.minecraft.client.server.IntegratedServer;
 import net.minecraft.core.registries.Registries;
 import net.minecraft.network.chat.Component;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.food.FoodProperties;
 import net.minecraft.world.item.BlockItem;
 import net.minecraft.world.item.CreativeModeTab;
@@ -19,6 +20,7 @@ import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockBehaviour;
 import net.minecraft.world.level.material.MapColor;
 import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
 import net.minecraftforge.client.event.ScreenEvent;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.BuildCreativeModeTabContentsEvent;
@@ -35,16 +37,22 @@ import net.minecraftforge.registries.ForgeRegistries;
 import net.minecraftforge.registries.RegistryObject;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.concurrent.CompletableFuture;
 import org.slf4j.Logger;
 
 // The value here should match an entry in the META-INF/mods.toml file
@@ -156,11 +164,23 @@ public class WorldTree {
             // Some client setup code
             LOGGER.info("HELLO FROM CLIENT SETUP");
             LOGGER.info("MINECRAFT NAME >> {}", Minecraft.getInstance().getUser().getName());
+
+            // Finish or clean up world switches interrupted by a crash
+            recoverInterruptedRestores(Minecraft.getInstance().gameDirectory.toPath().resolve("saves"));
         }
     }
 
     @Mod.EventBusSubscriber(modid = MODID, bus = Mod.EventBusSubscriber.Bus.FORGE)
     public static class WorldTreeEvents {
+        // The player is back in the world reopened by switchWorld
+        @SubscribeEvent
+        public static void onLoggingIn(ClientPlayerNetworkEvent.LoggingIn event) {
+            if (reload != null) {
+                reload.finish();
+                reload = null;
+            }
+        }
+
         @SubscribeEvent
         public static void onScreenInit(ScreenEvent.Init event) {
             if (event.getScreen() instanceof PauseScreen pauseScreen) {
@@ -204,7 +224,17 @@ public class WorldTree {
 
     private static File worldDir = null;
     private static File worldTreeDir = null;
-    private static File worldTreeFile = null;
+    private static TreeStorage storage = null;
+    private static TreeStorage loadedFrom = null; // Storage the tree in memory was loaded from
+    private static boolean autoSnapshotRunning = false;
+    private static SnapshotMetrics.Timer reload; // World reopened after a switch, until the player joins
+    // Last capture started and its server; the next capture on that server waits for
+    // it before flushing the world. A stopped server may never run a pending flush.
+    private static CompletableFuture<Void> lastCapture = CompletableFuture.completedFuture(null);
+    private static IntegratedServer lastCaptureServer;
+
+    // Snapshots and restores of a world live next to it in <world>-WorldTree, see WorldSwitch
+    private static final String WORLD_TREE_SUFFIX = "-WorldTree";
 
     // World tree node data structure
     public static class TreeNode {
@@ -217,10 +247,21 @@ public class WorldTree {
         public int x, y; // Logical position of the node in the tree
         public int width = 100, height = 20; // Node dimensions
         public int subtreeWidth = 0; // Subtree width (including all child nodes)
+        public int relativeX; // Center offset from the parent's center, see TreeLayout
+        public int subtreeSize; // Number of nodes in the subtree, including this one
+        public int subtreeRows; // Rows of shown descendants below the node
+        public int blockCount; // Count last drawn on the node's overview block, see WorldTreeScreen
+        public String blockLabel; // blockCount as text, with its width on screen
+        public int blockLabelWidth;
+        public TreeStorage.Stub stub; // Children not read from storage yet, see TreeStorage
         public boolean expanded = true; // Whether to expand child nodes
         public int padding = 10; // Text padding for dynamic width calculation
         public long timestamp; // Node creation timestamp
         public String folderName; // Folder name corresponding to the node
+        public SnapshotFormat format = SnapshotFormat.COPY; // How the node's world is stored
+        public boolean pending; // Snapshot still being written in the background
+        public boolean dummyParent; // Parent of the dummy node, kept up to date by moveDummy
+        public boolean auto; // Taken by SnapshotScheduler, and thinned out as it ages
 
         public TreeNode(String id, String displayName) {
             this.id = id;
@@ -244,6 +285,11 @@ public class WorldTree {
             child.timestamp = System.currentTimeMillis(); // Set child node timestamp
         }
 
+        // Whether the node has children, loaded or not
+        public boolean hasChildren() {
+            return !children.isEmpty() || stub != null;
+        }
+
         public boolean isRoot() {
             return parent == null;
         }
@@ -268,6 +314,8 @@ public class WorldTree {
     public static TreeNode rootNode;
     public static final Map<String, TreeNode> nodeMap = new HashMap<>();
     public static final String DUMMY_NODE_ID = "+ Add Save"; // Dummy node ID
+    // Snapshots of deleted nodes not reclaimed yet, see SnapshotCollector
+    public static final List<SnapshotCollector.Tombstone> trash = new ArrayList<>();
 
     private static void updateWorldTreeInfo() {
         // Get the world name
@@ -283,19 +331,14 @@ public class WorldTree {
         // Get the saves directory
         worldTreeDir = new File(
                 Minecraft.getInstance().gameDirectory.toPath().resolve("saves").toString() + "/"
-                        + worldName + "-WorldTree");
+                        + worldName + WORLD_TREE_SUFFIX);
         if (!worldTreeDir.exists()) {
             worldTreeDir.mkdirs();
         }
 
-        // World tree information file
-        worldTreeFile = new File(worldTreeDir, "WorldTree.json");
-        if (!worldTreeFile.exists()) {
-            try {
-                worldTreeFile.createNewFile();
-            } catch (IOException e) {
-                LOGGER.warn(e.getMessage());
-            }
+        // World tree files, see TreeStorage
+        if (storage == null || !storage.treeDir.equals(worldTreeDir.toPath())) {
+            storage = new TreeStorage(worldTreeDir.toPath());
         }
     }
 
@@ -303,72 +346,20 @@ public class WorldTree {
         // Update the world tree information
         updateWorldTreeInfo();
 
-        // Check if the file exists
-        if (worldTreeFile == null || !worldTreeFile.exists() || worldTreeFile.length() == 0) {
-            LOGGER.info("World tree file not found or empty, using default tree");
+        if (storage == null) {
+            LOGGER.warn("World tree storage is null, using default tree");
             createDefaultTree();
             return;
         }
 
-        try (FileReader reader = new FileReader(worldTreeFile)) {
-            Gson gson = new Gson();
-            Type type = new TypeToken<Map<String, Object>>() {
-            }.getType();
-            Map<String, Object> savedData = gson.fromJson(reader, type);
-
-            if (savedData == null) {
-                LOGGER.warn("World tree data is null, creating default tree");
-                createDefaultTree();
-                return;
-            }
-
+        try {
             // Clear the current tree structure
             nodeMap.clear();
-            rootNode = null;
-
-            // Read node data
-            if (savedData.containsKey("nodes")) {
-                @SuppressWarnings("unchecked")
-                Map<String, Map<String, Object>> nodesData = (Map<String, Map<String, Object>>) savedData.get("nodes");
-
-                // First pass: create all nodes
-                for (String nodeId : nodesData.keySet()) {
-                    Map<String, Object> nodeData = nodesData.get(nodeId);
-                    String displayName = (String) nodeData.get("displayName");
-                    TreeNode node = new TreeNode(nodeId, displayName);
-                    node.expanded = (boolean) nodeData.get("expanded");
-                    // Read timestamp (if exists)
-                    if (nodeData.containsKey("timestamp")) {
-                        node.timestamp = ((Double) nodeData.get("timestamp")).longValue();
-                    }
-                    // Read folder name (if exists)
-                    if (nodeData.containsKey("folderName")) {
-                        node.folderName = (String) nodeData.get("folderName");
-                    }
-                    nodeMap.put(nodeId, node);
+            trash.clear();
+            rootNode = storage.load(nodeMap, trash);
 
-                    if (nodeId.equals("root")) {
-                        rootNode = node;
-                    }
-                }
-
-                // Second pass: establish parent-child relationships
-                for (String nodeId : nodesData.keySet()) {
-                    Map<String, Object> nodeData = nodesData.get(nodeId);
-                    TreeNode node = nodeMap.get(nodeId);
-                    String parentId = (String) nodeData.get("parentId");
-
-                    if (parentId != null && !parentId.isEmpty()) {
-                        TreeNode parent = nodeMap.get(parentId);
-                        if (parent != null) {
-                            parent.addChild(node);
-                        } else {
-                            LOGGER.warn("Parent node {} not found for {}", parentId, nodeId);
-                        }
-                    }
-                }
-            } else {
-                LOGGER.warn("No nodes data found in world tree file, creating default tree");
+            if (rootNode == null && nodeMap.isEmpty()) {
+                LOGGER.info("World tree file not found or empty, using default tree");
                 createDefaultTree();
                 return;
             }
@@ -378,6 +369,7 @@ public class WorldTree {
                 rootNode = new TreeNode("root", "root");
                 nodeMap.put("root", rootNode);
                 LOGGER.warn("Root node not found, created new root node");
+                saveWorldTree();
             }
 
             // Check if dummy node exists
@@ -387,9 +379,18 @@ public class WorldTree {
                 TreeNode dummyNode = new TreeNode(DUMMY_NODE_ID, "+ Current", Component.literal("+ Current"));
                 rootNode.addChild(dummyNode);
                 nodeMap.put(DUMMY_NODE_ID, dummyNode);
+                commit(edit -> edit.add(dummyNode));
+            }
+            TreeNode dummy = nodeMap.get(DUMMY_NODE_ID);
+            if (dummy.parent != null) {
+                dummy.parent.dummyParent = true;
             }
 
+            loadedFrom = storage;
             LOGGER.info("World tree loaded successfully with {} nodes", nodeMap.size());
+
+            // Resume reclaiming deleted snapshots
+            collectTrash();
         } catch (Exception e) {
             LOGGER.error("Failed to load world tree: {}", e.getMessage());
             // Create default tree on load failure
@@ -400,89 +401,171 @@ public class WorldTree {
     // Create default tree structure
     private static void createDefaultTree() {
         nodeMap.clear();
+        trash.clear();
         rootNode = new TreeNode("root", "root");
         nodeMap.put("root", rootNode);
 
         // Add dummy node (with custom name)
         TreeNode dummyNode = new TreeNode(DUMMY_NODE_ID, "+ Current", Component.literal("+ Current"));
         rootNode.addChild(dummyNode);
+        rootNode.dummyParent = true;
         nodeMap.put(DUMMY_NODE_ID, dummyNode);
 
         // Create folder for root node and copy the current world
-        copyWorldForNode(rootNode);
+        copyWorldForNode(rootNode).exceptionally(error -> {
+            LOGGER.error("Failed to copy world for root node: {}", error.getMessage());
+            return null;
+        });
 
         saveWorldTree();
+        loadedFrom = storage;
 
         LOGGER.info("Created default world tree with root and dummy node");
     }
 
-    // Copy current world for node
-    @SuppressWarnings("null")
-    private static void copyWorldForNode(TreeNode node) {
+    // Copy current world for node in the background; the future completes on the
+    // snapshot thread once the snapshot is on disk
+    private static CompletableFuture<Void> copyWorldForNode(TreeNode node) {
         if (worldDir == null || !worldDir.exists()) {
             LOGGER.warn("World directory not found, cannot copy for node: {}", node.id);
-            return;
+            return CompletableFuture.failedFuture(new IOException("World directory not found"));
+        }
+
+        IntegratedServer server = Minecraft.getInstance().getSingleplayerServer();
+        if (server == null) {
+            LOGGER.warn("No integrated server, cannot copy for node: {}", node.id);
+            return CompletableFuture.failedFuture(new IOException("No integrated server"));
         }
 
         // Generate node folder name: node name-timestamp
         node.folderName = node.displayName + "-" + node.timestamp;
-        Path targetPath = worldTreeDir.toPath().resolve(node.folderName);
+        node.format = Config.snapshotFormat;
+
+        Path world = worldDir.toPath();
+        Path treeDir = worldTreeDir.toPath();
+        String description = "Saving " + node.displayName;
+        // Saving stays off from the flush until the capture is done, so the server never
+        // rewrites a file while it is read. A capture started meanwhile flushes after it.
+        CompletableFuture<Void> previous = server == lastCaptureServer
+                ? lastCapture.exceptionally(error -> null)
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> capture = previous
+                .thenCompose(ignored -> pauseSaving(server, node))
+                .thenCompose(paused -> SnapshotJobs.submit(description, progress -> {
+                    SnapshotMetrics.Timer timer = SnapshotMetrics.start(SnapshotMetrics.Phase.CAPTURE,
+                            node.displayName);
+                    node.format.capture(world, treeDir, node, paused.changes(), progress);
+                    timer.finish(progress.done(), progress.files());
+                    LOGGER.info("Captured world for node {} as {}", node.id, node.format);
+                }).whenComplete((result, error) -> server.execute(() -> resumeSaving(paused))));
+        lastCapture = capture;
+        lastCaptureServer = server;
+        return capture;
+    }
 
-        try {
-            // Save current world
-            while (Minecraft.getInstance().getSingleplayerServer() == null) {
+    // Levels whose saving was turned off for a capture, with their previous setting,
+    // and the region files written since the previous snapshot
+    private record PausedSaving(Map<ServerLevel, Boolean> levels, DirtyChunkTracker.Changes changes) {
+    }
+
+    // Save and flush all chunks for the snapshot of node, then turn saving off and take
+    // the region files written since the previous snapshot's flush, all in one server task
+    private static CompletableFuture<PausedSaving> pauseSaving(IntegratedServer server, TreeNode node) {
+        return server.submit(() -> {
+            SnapshotMetrics.Timer timer = SnapshotMetrics.start(SnapshotMetrics.Phase.FLUSH, node.displayName);
+            server.saveAllChunks(false, true, false);
+            timer.finish();
+            Map<ServerLevel, Boolean> levels = new HashMap<>();
+            for (ServerLevel level : server.getAllLevels()) {
+                levels.put(level, level.noSave);
+                level.noSave = true;
             }
-            Minecraft.getInstance().getSingleplayerServer().saveAllChunks(false, false, false);
+            return new PausedSaving(levels, DirtyChunkTracker.takeChanges(node.folderName));
+        });
+    }
 
-            // Copy world
-            FileUtils.copyDirectory(worldDir.toPath(), targetPath);
-            LOGGER.info("Copied world to node folder: {}", targetPath);
-        } catch (IOException e) {
-            LOGGER.error("Failed to copy world for node {}: {}", node.id, e.getMessage());
+    // Give the levels their saving setting back; runs on the server thread. Stopping
+    // the server turns saving back on by itself.
+    private static void resumeSaving(PausedSaving paused) {
+        paused.levels().forEach((level, noSave) -> level.noSave = noSave);
+    }
+
+    // Run a completion callback on the client thread
+    private static void onClientThread(Runnable task) {
+        Minecraft.getInstance().execute(task);
+    }
+
+    // Rebuild the world tree screen if it is open
+    private static void refreshScreen() {
+        if (Minecraft.getInstance().screen instanceof WorldTreeScreen screen) {
+            screen.rebuild();
         }
     }
 
+    // Write the whole tree as a new snapshot, which also empties the journal
     public static void saveWorldTree() {
         // Update the world tree information
         updateWorldTreeInfo();
 
-        if (worldTreeFile == null) {
-            LOGGER.warn("World tree file is null, cannot save");
+        if (storage == null || rootNode == null) {
+            LOGGER.warn("World tree storage is null, cannot save");
             return;
         }
 
-        try (FileWriter writer = new FileWriter(worldTreeFile)) {
-            Gson gson = new Gson();
-            Map<String, Object> saveData = new HashMap<>();
-
-            // Save node data
-            Map<String, Map<String, Object>> nodesData = new HashMap<>();
-            for (TreeNode node : nodeMap.values()) {
-                Map<String, Object> nodeData = new HashMap<>();
-                nodeData.put("expanded", node.expanded);
-                nodeData.put("timestamp", node.timestamp); // Save timestamp
-                nodeData.put("folderName", node.folderName); // Save folder name
-                nodeData.put("displayName", node.displayName); // Save display name
-
-                // Record parent node ID (root has no parent)
-                if (node.parent != null) {
-                    nodeData.put("parentId", node.parent.id);
-                } else {
-                    nodeData.put("parentId", "");
-                }
-
-                nodesData.put(node.id, nodeData);
-            }
-            saveData.put("nodes", nodesData);
-
-            gson.toJson(saveData, writer);
+        try {
+            storage.write(rootNode, trash);
             LOGGER.info("World tree saved successfully with {} nodes", nodeMap.size());
         } catch (IOException e) {
             LOGGER.error("Failed to save world tree: {}", e.getMessage());
         }
     }
 
+    // Journal a mutation of the tree, compacting the journal into a new snapshot once
+    // it has grown large
+    private static void commit(Consumer<TreeStorage.Edit> mutation) {
+        updateWorldTreeInfo();
+
+        if (storage == null) {
+            LOGGER.warn("World tree storage is null, cannot save");
+            return;
+        }
+
+        try {
+            TreeStorage.Edit edit = storage.edit();
+            mutation.accept(edit);
+            edit.commit();
+            if (storage.needsCompaction()) {
+                saveWorldTree();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to journal world tree change: {}", e.getMessage());
+            // A full snapshot starts a fresh journal
+            saveWorldTree();
+        }
+    }
+
+    // Expand or collapse a node and remember it. Children left in storage are read
+    // when the node is first expanded.
+    public static void setExpanded(TreeNode node, boolean expanded) {
+        if (expanded && node.stub != null) {
+            try {
+                storage.loadChildren(node, nodeMap, true);
+            } catch (IOException e) {
+                LOGGER.error("Failed to load children of {}: {}", node.id, e.getMessage());
+                return;
+            }
+        }
+        node.expanded = expanded;
+        if (!node.pending) {
+            commit(edit -> edit.expand(node));
+        }
+    }
+
     public static void addSave(String parentId, String displayName) {
+        addSave(parentId, displayName, false);
+    }
+
+    private static void addSave(String parentId, String displayName, boolean auto) {
         TreeNode parent = nodeMap.get(parentId);
         if (parent != null) {
             // Generate unique ID: timestamp + display name
@@ -490,44 +573,187 @@ public class WorldTree {
             TreeNode newNode = new TreeNode(uniqueId, displayName);
             parent.addChild(newNode);
             nodeMap.put(uniqueId, newNode);
+            newNode.pending = true;
+            newNode.auto = auto;
+            autoSnapshotRunning |= auto;
 
             // Create folder for node and copy current world
-            copyWorldForNode(newNode);
-
-            // Move dummy node to become child of new node
-            TreeNode dummyNode = nodeMap.get(DUMMY_NODE_ID);
-            if (dummyNode != null) {
-                // Remove from original parent
-                if (dummyNode.parent != null) {
-                    dummyNode.parent.children.remove(dummyNode);
+            copyWorldForNode(newNode).whenComplete((result, error) -> onClientThread(() -> {
+                newNode.pending = false;
+                if (auto) {
+                    autoSnapshotRunning = false;
                 }
-                // Add under new node
-                newNode.addChild(dummyNode);
+                if (error != null) {
+                    LOGGER.error("Failed to copy world for node {}: {}", newNode.id, error.getMessage());
+                    newNode.parent.children.remove(newNode);
+                    nodeMap.remove(newNode.id);
+                } else if (nodeMap.get(newNode.id) == newNode) {
+                    // Move dummy node to become child of new node
+                    TreeNode dummyNode = nodeMap.get(DUMMY_NODE_ID);
+                    if (dummyNode != null) {
+                        moveDummy(dummyNode, newNode);
+                    }
+                    commit(edit -> {
+                        edit.add(newNode);
+                        if (dummyNode != null) {
+                            edit.move(dummyNode);
+                        }
+                    });
+                    if (auto) {
+                        thinAutoSnapshots();
+                    }
+                }
+
+                refreshScreen();
+            }));
+        }
+    }
+
+    // Branch off an automatic snapshot at the current node, called by
+    // SnapshotScheduler on the client thread. Skipped while another snapshot is being
+    // taken, so automatic snapshots never queue up behind each other.
+    static void takeAutoSnapshot(String reason) {
+        if (autoSnapshotRunning || SnapshotJobs.isBusy()) {
+            LOGGER.debug("Skipping automatic snapshot ({}): a snapshot is being taken", reason);
+            return;
+        }
+        updateWorldTreeInfo();
+        if (rootNode == null || loadedFrom != storage) {
+            loadWorldTree();
+        }
+        TreeNode dummyNode = nodeMap.get(DUMMY_NODE_ID);
+        if (dummyNode == null || dummyNode.parent == null) {
+            return;
+        }
+        String time = LocalDateTime.now().format(AUTO_SNAPSHOT_TIME);
+        addSave(dummyNode.parent.id, "Auto " + time + " (" + reason + ")", true);
+        refreshScreen();
+    }
+
+    private static final DateTimeFormatter AUTO_SNAPSHOT_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+
+    // Thin out automatic snapshots: all are kept for an hour, then the newest per hour
+    // for keepHourlyAutoSnapshotsHours, then the newest per day for
+    // keepDailyAutoSnapshotsDays, after which they are removed. A removed snapshot's
+    // children take its place, so later branches survive. The current node is kept.
+    // Collapsed subtrees are read for this and unloaded again afterwards.
+    private static void thinAutoSnapshots() {
+        boolean stubbed = hasStubs(rootNode);
+        if (stubbed) {
+            try {
+                storage.loadSubtree(rootNode, nodeMap);
+            } catch (IOException e) {
+                LOGGER.error("Failed to load the world tree to thin automatic snapshots: {}", e.getMessage());
+                return;
             }
+        }
 
-            saveWorldTree();
+        long now = System.currentTimeMillis();
+        List<TreeNode> autos = new ArrayList<>();
+        for (TreeNode node : nodeMap.values()) {
+            if (node.auto && !node.pending && !node.dummyParent && !node.isRoot()) {
+                autos.add(node);
+            }
+        }
+        autos.sort(Comparator.comparingLong((TreeNode node) -> node.timestamp).reversed());
+
+        Set<Long> buckets = new HashSet<>();
+        List<TreeNode> thinned = new ArrayList<>();
+        for (TreeNode node : autos) {
+            long age = now - node.timestamp;
+            if (age < HOUR) {
+                continue;
+            }
+            // Hours and days are told apart by sign
+            long bucket;
+            if (age < Config.keepHourlyAutoSnapshotsHours * HOUR) {
+                bucket = node.timestamp / HOUR;
+            } else if (age < Config.keepDailyAutoSnapshotsDays * DAY) {
+                bucket = -(node.timestamp / DAY) - 1;
+            } else {
+                thinned.add(node);
+                continue;
+            }
+            if (!buckets.add(bucket)) {
+                thinned.add(node);
+            }
+        }
+
+        List<SnapshotCollector.Tombstone> tombstones = new ArrayList<>();
+        List<TreeNode> spliced = new ArrayList<>();
+        for (TreeNode node : thinned) {
+            try {
+                // Unloaded children are read so that they can move up
+                storage.loadChildren(node, nodeMap, true);
+            } catch (IOException e) {
+                LOGGER.error("Failed to load children of {}: {}", node.id, e.getMessage());
+                continue;
+            }
+            TreeStorage.splice(node);
+            nodeMap.remove(node.id);
+            spliced.add(node);
+            if (node.folderName != null) {
+                tombstones.add(new SnapshotCollector.Tombstone(node.folderName, node.format));
+            }
+        }
+        if (!spliced.isEmpty()) {
+            trash.addAll(tombstones);
+            commit(edit -> {
+                spliced.forEach(node -> edit.splice(node.id));
+                tombstones.forEach(edit::trash);
+            });
+            LOGGER.info("Thinned out {} automatic snapshots", spliced.size());
+            collectTrash();
+        }
+
+        if (stubbed) {
+            try {
+                storage.compact(rootNode, trash, nodeMap);
+            } catch (IOException e) {
+                LOGGER.error("Failed to unload collapsed subtrees: {}", e.getMessage());
+            }
         }
     }
 
+    // Whether any subtree below node is still left in storage
+    private static boolean hasStubs(TreeNode node) {
+        Deque<TreeNode> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            TreeNode current = stack.pop();
+            if (current.stub != null) {
+                return true;
+            }
+            current.children.forEach(stack::push);
+        }
+        return false;
+    }
+
     public static void loadSave(String saveId) {
         TreeNode node = nodeMap.get(saveId);
-        if (node != null && node.folderName != null) {
+        if (node != null && node.pending) {
+            LOGGER.warn("Cannot load save: snapshot of {} is still being written", saveId);
+        } else if (node != null && node.folderName != null) {
             switchWorld(node);
         } else {
             LOGGER.warn("Cannot load save: node not found or no folder name");
         }
     }
 
-    // Recursively collect node and all its children (excluding dummy node)
+    // Collect node and all its children (excluding dummy node). Iterative, so deep
+    // branches cannot overflow the stack.
     private static List<TreeNode> collectAllChildrenExcludingDummy(TreeNode node) {
         List<TreeNode> nodes = new ArrayList<>();
-        // Add current node if not dummy
-        if (!node.id.equals(DUMMY_NODE_ID)) {
-            nodes.add(node);
-            // Recursively collect all non-dummy children
-            for (TreeNode child : node.children) {
-                if (!child.id.equals(DUMMY_NODE_ID)) {
-                    nodes.addAll(collectAllChildrenExcludingDummy(child));
+        Deque<TreeNode> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            TreeNode current = stack.pop();
+            if (!current.id.equals(DUMMY_NODE_ID)) {
+                nodes.add(current);
+                for (TreeNode child : current.children) {
+                    stack.push(child);
                 }
             }
         }
@@ -537,6 +763,16 @@ public class WorldTree {
     public static void removeSave(String saveId) {
         TreeNode node = nodeMap.get(saveId);
         if (node != null && !node.isRoot()) {
+            // Every node of the subtree is needed for its tombstone
+            try {
+                if (storage != null) {
+                    storage.loadSubtree(node, nodeMap);
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to load subtree of {}: {}", saveId, e.getMessage());
+                return;
+            }
+
             // 1. Get the parent node of the node to be deleted
             TreeNode originalParent = node.parent;
 
@@ -546,43 +782,56 @@ public class WorldTree {
             // 3. Remove the current node from its parent
             node.parent.children.remove(node);
 
-            // 4. Delete the node and its children (excluding dummy nodes)
+            // 4. Remove the node and its children (excluding dummy nodes) from the node map
             for (TreeNode nodeToRemove : nodesToRemove) {
-                // Remove from node map
                 nodeMap.remove(nodeToRemove.id);
+            }
 
-                // Delete corresponding folder
+            // Only tombstones are written here; the data is reclaimed in the background
+            List<SnapshotCollector.Tombstone> tombstones = new ArrayList<>();
+            for (TreeNode nodeToRemove : nodesToRemove) {
                 if (nodeToRemove.folderName != null) {
-                    Path folderPath = worldTreeDir.toPath().resolve(nodeToRemove.folderName);
-                    try {
-                        if (Files.exists(folderPath)) {
-                            FileUtils.deleteDirectory(folderPath);
-                            LOGGER.info("Deleted node folder: {}", folderPath);
-                        }
-                    } catch (IOException e) {
-                        LOGGER.error("Failed to delete node folder: {}", e.getMessage());
-                    }
+                    tombstones.add(new SnapshotCollector.Tombstone(nodeToRemove.folderName, nodeToRemove.format));
                 }
             }
+            trash.addAll(tombstones);
 
             // 5. Check if the parent node of the dummy node has been deleted
             TreeNode dummyNode = nodeMap.get(DUMMY_NODE_ID);
             if (dummyNode != null) {
                 if (!nodeMap.containsKey(dummyNode.parent.id)) {
                     // Move the dummy node to the original parent node of the deleted node
-                    if (dummyNode.parent != null) {
-                        dummyNode.parent.children.remove(dummyNode);
-                    }
-                    originalParent.addChild(dummyNode);
+                    moveDummy(dummyNode, originalParent);
                     LOGGER.info("Moved dummy node to original parent: {}", originalParent.id);
                 }
             }
 
             // 6. Save the updated world tree
-            saveWorldTree();
+            commit(edit -> {
+                edit.remove(node.id);
+                tombstones.forEach(edit::trash);
+            });
+            collectTrash();
         }
     }
 
+    // Hand the tombstones of the loaded tree to the collector
+    private static void collectTrash() {
+        if (!trash.isEmpty() && worldTreeDir != null) {
+            SnapshotCollector.collect(worldTreeDir.toPath(), List.copyOf(trash), WorldTree::onReclaimed);
+        }
+    }
+
+    // Drop a tombstone once its data is gone, if its tree is still the loaded one;
+    // otherwise it is dropped when that tree is loaded again and found reclaimed
+    private static void onReclaimed(Path treeDir, SnapshotCollector.Tombstone tombstone) {
+        onClientThread(() -> {
+            if (worldTreeDir != null && worldTreeDir.toPath().equals(treeDir) && trash.remove(tombstone)) {
+                commit(edit -> edit.reclaim(tombstone));
+            }
+        });
+    }
+
     // Move dummy node to specified node
     public static void moveDummyNode(TreeNode newParent) {
         TreeNode dummyNode = nodeMap.get(DUMMY_NODE_ID);
@@ -591,72 +840,124 @@ public class WorldTree {
             return;
         }
 
-        // Remove from original parent
+        moveDummy(dummyNode, newParent);
+        commit(edit -> edit.move(dummyNode));
+        LOGGER.info("Moved dummy node to {}", newParent.id);
+    }
+
+    // Re-attach the dummy node and move the dummy parent flag along with it
+    private static void moveDummy(TreeNode dummyNode, TreeNode newParent) {
         if (dummyNode.parent != null) {
             dummyNode.parent.children.remove(dummyNode);
+            dummyNode.parent.dummyParent = false;
         }
-
-        // Add to new parent
         newParent.addChild(dummyNode);
-        saveWorldTree();
-        LOGGER.info("Moved dummy node to {}", newParent.id);
+        newParent.dummyParent = true;
+    }
+
+    // Queue deletion of a directory behind the jobs already waiting
+    private static void deleteLater(Path directory) {
+        SnapshotJobs.submit("Deleting " + directory.getFileName(), progress -> {
+            SnapshotMetrics.Timer timer = SnapshotMetrics.start(SnapshotMetrics.Phase.DELETE,
+                    directory.getFileName().toString());
+            long[] files = new long[1];
+            FileUtils.deleteDirectory(directory, () -> files[0]++);
+            timer.finish(0, files[0]);
+            LOGGER.info("Deleted {}", directory);
+        }).exceptionally(error -> {
+            LOGGER.error("Failed to delete {}: {}", directory, error.getMessage());
+            return null;
+        });
+    }
+
+    // Complete restores whose world was swapped out but not yet swapped back in, or
+    // only partly updated in place, when the game stopped, and queue deletion of any
+    // other leftovers
+    static void recoverInterruptedRestores(Path savesDir) {
+        if (!Files.isDirectory(savesDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> trees = Files.newDirectoryStream(savesDir, "*" + WORLD_TREE_SUFFIX)) {
+            for (Path treeDir : trees) {
+                String treeName = treeDir.getFileName().toString();
+                Path world = savesDir.resolve(treeName.substring(0, treeName.length() - WORLD_TREE_SUFFIX.length()));
+
+                Path ready = treeDir.resolve(WorldSwitch.READY_DIR);
+                if (Files.isDirectory(ready) && !Files.exists(world)) {
+                    Files.move(ready, world, StandardCopyOption.ATOMIC_MOVE);
+                    LOGGER.info("Completed interrupted world switch: {}", world);
+                }
+                Path patch = treeDir.resolve(WorldSwitch.PATCH_DIR);
+                if (WorldSwitch.isPatch(patch) && Files.isDirectory(world)) {
+                    WorldSwitch.apply(patch, world);
+                    LOGGER.info("Completed interrupted in-place world switch: {}", world);
+                }
+
+                try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(treeDir, ".restore-*")) {
+                    for (Path leftover : leftovers) {
+                        deleteLater(leftover);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to recover interrupted world switches: {}", e.getMessage());
+        }
     }
 
-    // Switch to world of specified node
-    @SuppressWarnings("null")
+    // Switch to world of specified node. The world is closed first, so the server's
+    // final save cannot write into the restored world; the restore then runs on the
+    // snapshot thread and the world is reopened on the client thread once it has
+    // finished. Must be called on the client thread.
     public static void switchWorld(TreeNode node) {
         if (node == null || node.folderName == null) {
             LOGGER.warn("Cannot switch world: invalid node");
             return;
         }
 
-        Path sourcePath = worldTreeDir.toPath().resolve(node.folderName);
-        if (!Files.exists(sourcePath)) {
-            LOGGER.warn("Node folder not found: {}", sourcePath);
+        Minecraft mc = Minecraft.getInstance();
+        IntegratedServer server = mc.getSingleplayerServer();
+        if (server == null) {
+            LOGGER.warn("Cannot switch world: no integrated server");
             return;
         }
+        String worldName = server.getWorldData().getLevelName();
 
-        Minecraft mc = Minecraft.getInstance();
-        String worldName = Optional.ofNullable(mc.getSingleplayerServer())
-                .map(server -> server.getWorldData().getLevelName())
-                .orElse("unknown_world");
-
+        Path treeDir = worldTreeDir.toPath();
         Path savesDir = mc.gameDirectory.toPath().resolve("saves");
         Path targetDir = savesDir.resolve(worldName);
 
-        try {
-            // Save current world
-            while (Minecraft.getInstance().getSingleplayerServer() == null) {
+        // Leave the world; disconnect returns once the server has stopped and saved
+        SnapshotMetrics.Timer flush = SnapshotMetrics.start(SnapshotMetrics.Phase.FLUSH, node.displayName);
+        if (mc.level != null) {
+            mc.level.disconnect();
+        }
+        mc.disconnect(new GenericMessageScreen(Component.literal("Switching to " + node.displayName + "...")));
+        flush.finish();
+        boolean closed = mc.getSingleplayerServer() == null;
+
+        // Replace the world once every earlier job has finished
+        SnapshotJobs.submit("Switching to " + node.displayName, progress -> {
+            SnapshotMetrics.Timer timer = SnapshotMetrics.start(SnapshotMetrics.Phase.RESTORE, node.displayName);
+            Path old = WorldSwitch.restore(treeDir, node, targetDir, closed, progress);
+            timer.finish(progress.done(), progress.files());
+            if (old != null) {
+                deleteLater(old);
             }
-            Minecraft.getInstance().getSingleplayerServer().saveAllChunks(false, false, false);
-
-            // Delete current world content
-            if (Files.exists(targetDir)) {
-                FileUtils.deleteDirectory(targetDir);
-                LOGGER.info("Deleted current world: {}", targetDir);
+        }).whenComplete((result, error) -> onClientThread(() -> {
+            if (error != null) {
+                // Reopen the world as the failed restore left it, unchanged unless it was patching
+                LOGGER.error("Failed to switch world: ", error);
             }
 
-            // Copy node world to current world
-            FileUtils.copyDirectory(sourcePath, targetDir);
-            LOGGER.info("Copied node world to current: {}", targetDir);
-
-            // Reload world
-            mc.execute(() -> {
-                if (mc.level != null) {
-                    mc.level.disconnect();
-                }
-
-                try {
-                    // Reopen world
-                    mc.createWorldOpenFlows().openWorld(worldName, null);
-                    LOGGER.info("World reloaded: {}", worldName);
-                } catch (Exception e) {
-                    LOGGER.error("Failed to reload world: ", e);
-                }
-            });
-
-        } catch (IOException e) {
-            LOGGER.error("Failed to switch world: ", e);
-        }
+            try {
+                // Reopen world; the reload is timed until the player is back in it
+                reload = SnapshotMetrics.start(SnapshotMetrics.Phase.RELOAD, node.displayName);
+                mc.createWorldOpenFlows().openWorld(worldName, null);
+                LOGGER.info("World reloaded: {}", worldName);
+            } catch (Exception e) {
+                reload = null;
+                LOGGER.error("Failed to reload world: ", e);
+            }
+        }));
     }
 }
\ No newline at end of file
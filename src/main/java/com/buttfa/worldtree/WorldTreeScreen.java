@@ -4,17 +4,15 @@ import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
 import net.minecraft.client.gui.components.Button;
 import net.minecraft.client.gui.components.EditBox;
-import net.minecraft.client.gui.components.events.GuiEventListener;
 import net.minecraft.network.chat.Component;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 
 // World tree interface
 class WorldTreeScreen extends net.minecraft.client.gui.screens.Screen {
-    private static final int HORIZONTAL_SPACING = 20; // Horizontal spacing between nodes
-    private static final int VERTICAL_SPACING = 30; // Vertical spacing between nodes
     private static final int LINE_COLOR = 0xFFAAAAAA; // Connection line color
     private static final int ROOT_Y = 30; // Root node Y coordinate
     private static final int DUMMY_COLOR = 0x40FFFFFF; // Dummy node background color
@@ -22,16 +20,57 @@ class WorldTreeScreen extends net.minecraft.client.gui.screens.Screen {
     private static final int DUMMY_LINE_COLOR = 0x80AAAAAA; // Dummy node connection line color
     private static final int DUMMY_PARENT_COLOR = 0x60FFA500; // Special color for dummy node's parent (orange)
 
+    // Zoom is multiplicative and practically unbounded when zooming out. Below
+    // OVERVIEW_ZOOM the tree is drawn as plain blocks without buttons or labels, and
+    // subtrees narrower than AGGREGATE_PIXELS become one block with their node count.
+    private static final float ZOOM_STEP = 1.1f;
+    private static final float MIN_ZOOM = 1.0e-4f;
+    private static final float MAX_ZOOM = 10.0f;
+    private static final float OVERVIEW_ZOOM = 0.4f;
+    private static final float AGGREGATE_PIXELS = 24.0f;
+    private static final int OVERVIEW_NODE_COLOR = 0xA0FFFFFF; // Node block color when zoomed out
+    private static final int AGGREGATE_COLOR = 0x604080FF; // Aggregated subtree block color
+
     private float zoom = 1.0f; // Current zoom level
-    private int offsetX = 0; // X-axis offset
-    private int offsetY = 0; // Y-axis offset
-    private int dragStartX, dragStartY; // Drag start coordinates
-    private int startOffsetX, startOffsetY; // Offset at start of dragging
+    // Offsets in layout units, kept fractional so that panning at high zoom moves
+    // the tree by screen pixels; positions are only rounded when drawn
+    private double offsetX = 0; // X-axis offset
+    private double offsetY = 0; // Y-axis offset
+    private double dragStartX, dragStartY; // Drag start coordinates
+    private double startOffsetX, startOffsetY; // Offset at start of dragging
     private boolean isDragging = false; // Whether dragging is in progress
     private WorldTree.TreeNode selectedNode; // Currently selected node
 
-    // Store all node buttons
-    private final Map<WorldTree.TreeNode, NodeButton> nodeButtons = new HashMap<>();
+    // Cached layout of the tree, updated in place on expand/collapse
+    private TreeLayout layout;
+
+    // Buttons are pooled: only nodes in view are bound to one, and buttons of nodes
+    // that leave the view are rebound to the ones coming into it, so the widget count
+    // follows what fits on screen rather than the size of the tree
+    private static final int MAX_SPARE_BUTTONS = 64;
+    private final Map<WorldTree.TreeNode, NodeButton> boundButtons = new HashMap<>();
+    private final List<NodeButton> spareButtons = new ArrayList<>();
+    private DummyNodeButton dummyButton;
+
+    // Nodes, edges and buttons in view this frame, see TreeViewport
+    private final TreeViewport viewport = new TreeViewport();
+    private final List<WorldTree.TreeNode> visibleNodes = new ArrayList<>();
+    private final List<WorldTree.TreeNode> visibleEdges = new ArrayList<>();
+    private final List<WorldTree.TreeNode> visibleAggregates = new ArrayList<>();
+    private List<NodeButton> shownButtons = new ArrayList<>();
+    private List<NodeButton> previousButtons = new ArrayList<>();
+    private int frame;
+    private final EdgeBatch edges = new EdgeBatch();
+
+    // Hint and status lines, rebuilt only when their values change
+    private String zoomHint;
+    private float zoomHintZoom = Float.NaN;
+    private String status;
+    private String statusDescription;
+    private int statusPercent, statusQueued;
+    private final List<String> metrics = new ArrayList<>();
+    private long metricsVersion = -1;
+    private int metricsQueued = -1;
 
     protected WorldTreeScreen() {
         super(Component.literal("World Tree Screen"));
@@ -42,29 +81,129 @@ class WorldTreeScreen extends net.minecraft.client.gui.screens.Screen {
     public void render(GuiGraphics guiGraphics, int mouseX, int mouseY, float partialTick) {
         this.renderBackground(guiGraphics, mouseX, mouseY, partialTick);
 
-        // Update positions of all node buttons
-        updateNodeButtonsPosition();
+        // Find the nodes and lines in view, placing them as they are reached
+        TreeLayout.placeRoot(WorldTree.rootNode, width / 2, ROOT_Y);
+        boolean overview = isOverview();
+        viewport.set(offsetX, offsetY, zoom, width, height, Config.curvedConnectors);
+        if (overview) {
+            viewport.aggregateBelow(AGGREGATE_PIXELS);
+        }
+        visibleNodes.clear();
+        visibleEdges.clear();
+        visibleAggregates.clear();
+        viewport.collect(WorldTree.rootNode, visibleNodes, visibleEdges, visibleAggregates);
+
+        // Update positions of the visible node buttons; there are none in the overview
+        updateNodeButtonsPosition(!overview);
 
         // Draw connection lines (including dummy nodes)
         drawTreeLines(guiGraphics);
+        if (overview) {
+            drawOverview(guiGraphics);
+        }
 
         // Draw node buttons
         super.render(guiGraphics, mouseX, mouseY, partialTick);
+        for (NodeButton button : shownButtons) {
+            button.render(guiGraphics, mouseX, mouseY, partialTick);
+        }
 
         // Draw zoom hint
-        guiGraphics.drawString(font, "Zoom: " + String.format("%.1f", zoom) +
-                " | Use mouse wheel to zoom | Drag to pan | Right-click to expand/collapse", 10, 10, 0xFFFFFF);
+        if (zoom != zoomHintZoom) {
+            zoomHintZoom = zoom;
+            zoomHint = "Zoom: " + String.format("%.3g", zoom) +
+                    " | Use mouse wheel to zoom | Drag to pan | Right-click to expand/collapse";
+        }
+        guiGraphics.drawString(font, zoomHint, 10, 10, 0xFFFFFF);
+
+        // Draw progress of the running snapshot job
+        SnapshotJobs.Progress progress = SnapshotJobs.current();
+        if (progress != null) {
+            guiGraphics.drawString(font, statusOf(progress), 10, 22, 0xFFFF55);
+        }
+
+        // Draw the snapshot phase timings below it
+        if (Config.showSnapshotMetrics) {
+            List<String> lines = metricLines();
+            for (int i = 0; i < lines.size(); i++) {
+                guiGraphics.drawString(font, lines.get(i), 10, 34 + i * 10, 0xAAAAAA);
+            }
+        }
     }
 
-    // Update positions of all node buttons
-    private void updateNodeButtonsPosition() {
-        for (Map.Entry<WorldTree.TreeNode, NodeButton> entry : nodeButtons.entrySet()) {
-            WorldTree.TreeNode node = entry.getKey();
-            NodeButton button = entry.getValue();
+    // One line per snapshot phase that has run, and the job queue
+    private List<String> metricLines() {
+        long version = SnapshotMetrics.version();
+        int queued = SnapshotJobs.pending();
+        if (version != metricsVersion || queued != metricsQueued) {
+            metricsVersion = version;
+            metricsQueued = queued;
+            metrics.clear();
+            for (SnapshotMetrics.Phase phase : SnapshotMetrics.Phase.values()) {
+                SnapshotMetrics.Stats stats = SnapshotMetrics.stats(phase);
+                if (stats.count() == 0) {
+                    continue;
+                }
+                double seconds = Math.max(stats.lastNanos(), 1) / 1e9;
+                String line = String.format("%s: %.0f ms (avg %.0f ms, %d runs)", phase.label,
+                        stats.lastNanos() / 1e6, stats.totalNanos() / 1e6 / stats.count(), stats.count());
+                if (stats.lastBytes() > 0) {
+                    line += String.format(", %.1f MiB/s", stats.lastBytes() / 1048576.0 / seconds);
+                }
+                if (stats.lastFiles() > 0) {
+                    line += String.format(", %.0f files/s", stats.lastFiles() / seconds);
+                }
+                metrics.add(line);
+            }
+            metrics.add("Snapshot jobs queued: " + queued);
+        }
+        return metrics;
+    }
+
+    // Status line of a snapshot job
+    private String statusOf(SnapshotJobs.Progress progress) {
+        float fraction = progress.fraction();
+        int percent = fraction >= 0 ? (int) (fraction * 100) : -1;
+        int queued = SnapshotJobs.pending() - 1;
+        if (status == null || !progress.description.equals(statusDescription)
+                || percent != statusPercent || queued != statusQueued) {
+            statusDescription = progress.description;
+            statusPercent = percent;
+            statusQueued = queued;
+            status = progress.description + (percent >= 0 ? " " + percent + "%" : "...");
+            if (queued > 0) {
+                status += " (" + queued + " queued)";
+            }
+        }
+        return status;
+    }
+
+    // Rebuild layout and buttons after the tree changed in the background
+    void rebuild() {
+        init();
+    }
+
+    // Position the buttons of visible nodes and release the ones no longer in view
+    private void updateNodeButtonsPosition(boolean bind) {
+        frame++;
+        List<NodeButton> hidden = previousButtons;
+        previousButtons = shownButtons;
+        shownButtons = hidden;
+        shownButtons.clear();
+
+        for (int i = 0; bind && i < visibleNodes.size(); i++) {
+            WorldTree.TreeNode node = visibleNodes.get(i);
+            NodeButton button = boundButtons.get(node);
+            if (button == null) {
+                button = acquire(node);
+            }
+            button.shownFrame = frame;
+            button.visible = true;
+            shownButtons.add(button);
 
             // Apply offset and zoom
-            int x = (int) ((node.x - offsetX) * zoom);
-            int y = (int) ((node.y - offsetY) * zoom);
+            int x = screenX(node.x);
+            int y = screenY(node.y);
             int width = (int) (node.width * zoom);
             int height = (int) (node.height * zoom);
 
@@ -72,47 +211,87 @@ class WorldTreeScreen extends net.minecraft.client.gui.screens.Screen {
             button.setWidth(width);
             button.setHeight(height);
         }
+
+        for (NodeButton button : previousButtons) {
+            if (button.shownFrame != frame) {
+                release(button);
+            }
+        }
+    }
+
+    // Screen pixel of a layout coordinate
+    private int screenX(int x) {
+        return (int) Math.floor((x - offsetX) * zoom);
+    }
+
+    private int screenY(int y) {
+        return (int) Math.floor((y - offsetY) * zoom);
+    }
+
+    private boolean isOverview() {
+        return zoom < OVERVIEW_ZOOM;
+    }
+
+    // Node or aggregated subtree under the mouse, found through the viewport index
+    private WorldTree.TreeNode nodeAt(double mouseX, double mouseY) {
+        return viewport.nodeAt(WorldTree.rootNode,
+                (int) Math.floor(mouseX / zoom + offsetX), (int) Math.floor(mouseY / zoom + offsetY));
+    }
+
+    // Visible node button under the mouse
+    private NodeButton buttonAt(double mouseX, double mouseY) {
+        WorldTree.TreeNode node = nodeAt(mouseX, mouseY);
+        NodeButton button = node != null ? boundButtons.get(node) : null;
+        return button != null && button.isMouseOver(mouseX, mouseY) ? button : null;
     }
 
     @Override
     protected void init() {
         super.init();
         clearWidgets();
-        nodeButtons.clear();
+        boundButtons.clear();
+        spareButtons.clear();
+        dummyButton = null;
+        shownButtons.clear();
+        previousButtons.clear();
 
         // Reset selected node
         selectedNode = null;
 
-        // Calculate tree layout (including dummy nodes)
-        calculateTreeLayout();
-
-        // Create node buttons
-        createNodeButtons();
+        // Calculate tree layout (including dummy nodes); buttons are bound as nodes
+        // come into view
+        layout = new TreeLayout(font::width);
+        layout.layout(WorldTree.rootNode);
     }
 
     @Override
     public boolean mouseClicked(double mouseX, double mouseY, int button) {
+        // Only the button under the mouse is tested, not every node
+        NodeButton target = buttonAt(mouseX, mouseY);
+        // Without buttons in the overview, blocks are hit-tested directly
+        WorldTree.TreeNode targetNode = target != null ? target.node
+                : isOverview() ? nodeAt(mouseX, mouseY) : null;
+
         // Handle right-click first (for node buttons)
-        if (button == 1) { // Right-click
-            for (GuiEventListener widget : children()) {
-                if (widget instanceof NodeButton buttonWidget && buttonWidget.isMouseOver(mouseX, mouseY)) {
-                    buttonWidget.node.expanded = !buttonWidget.node.expanded;
-                    init(); // Reinitialize interface
-                    return true;
-                }
-            }
+        if (button == 1 && targetNode != null) { // Right-click
+            // Only the node's ancestors are laid out again, and the buttons are kept
+            boolean stubbed = targetNode.stub != null;
+            WorldTree.setExpanded(targetNode, !targetNode.expanded);
+            layout.toggled(targetNode, stubbed && targetNode.stub == null);
+            return true;
         }
 
-        // Call super to handle other clicks (left-click buttons, etc.)
-        if (super.mouseClicked(mouseX, mouseY, button)) {
+        // Let the node button handle other clicks (left-click buttons, etc.)
+        if (target != null && target.mouseClicked(mouseX, mouseY, button)) {
+            setFocused(target);
             return true;
         }
 
         // Handle left-click on blank area (start dragging)
         if (button == 0) {
             isDragging = true;
-            dragStartX = (int) mouseX;
-            dragStartY = (int) mouseY;
+            dragStartX = mouseX;
+            dragStartY = mouseY;
             startOffsetX = offsetX;
             startOffsetY = offsetY;
             return true;
@@ -124,8 +303,9 @@ class WorldTreeScreen extends net.minecraft.client.gui.screens.Screen {
     @Override
     public boolean mouseDragged(double mouseX, double mouseY, int button, double dragX, double dragY) {
         if (button == 0 && isDragging) {
-            offsetX = startOffsetX + (dragStartX - (int) mouseX);
-            offsetY = startOffsetY + (dragStartY - (int) mouseY);
+            // Offsets are in layout units, so the tree follows the mouse at any zoom
+            offsetX = startOffsetX + (dragStartX - mouseX) / zoom;
+            offsetY = startOffsetY + (dragStartY - mouseY) / zoom;
             return true;
         }
         return false;
@@ -141,226 +321,146 @@ class WorldTreeScreen extends net.minecraft.client.gui.screens.Screen {
 
     @Override
     public boolean mouseScrolled(double mouseX, double mouseY, double deltaX, double deltaY) {
-        float zoomFactor = 0.1f;
+        float newZoom = zoom;
         if (deltaY > 0) {
-            zoom += zoomFactor;
+            newZoom = Math.min(MAX_ZOOM, zoom * ZOOM_STEP);
         } else if (deltaY < 0) {
-            zoom = Math.max(0.5f, zoom - zoomFactor);
+            newZoom = Math.max(MIN_ZOOM, zoom / ZOOM_STEP);
         }
+        // Keep the point under the mouse in place
+        offsetX += mouseX / zoom - mouseX / newZoom;
+        offsetY += mouseY / zoom - mouseY / newZoom;
+        zoom = newZoom;
         return true;
     }
 
-    // Calculate tree layout (using bottom-up approach for subtree widths)
-    private void calculateTreeLayout() {
-        // First calculate all node widths (based on text content)
-        calculateNodeWidths(WorldTree.rootNode);
-
-        // Then calculate subtree widths
-        calculateSubtreeWidths(WorldTree.rootNode);
-
-        // Finally calculate each node's position
-        calculateNodePositions(WorldTree.rootNode, width / 2, ROOT_Y);
-    }
-
-    // Calculate node width (based on text content and padding)
-    private void calculateNodeWidths(WorldTree.TreeNode node) {
-        // Calculate text width
-        int textWidth = font.width(node.displayName);
-        // Set node width = text width + left/right padding
-        node.width = textWidth + node.padding * 2;
-
-        // If there are children, add extra space for expand/collapse marker
-        if (!node.children.isEmpty()) {
-            node.width += 15; // Reserve space for marker
-        }
-
-        // Recursively calculate child nodes (only when node is expanded)
-        if (node.expanded) {
-            for (WorldTree.TreeNode child : node.children) {
-                calculateNodeWidths(child);
-            }
-        }
-    }
-
-    // Recursively calculate subtree widths
-    private int calculateSubtreeWidths(WorldTree.TreeNode node) {
-        if (node.expanded && !node.children.isEmpty()) {
-            int totalWidth = 0;
-            for (WorldTree.TreeNode child : node.children) {
-                totalWidth += calculateSubtreeWidths(child) + HORIZONTAL_SPACING;
+    // Bind a button to a node coming into view, reusing a spare one if possible
+    private NodeButton acquire(WorldTree.TreeNode node) {
+        NodeButton button;
+        if (node.id.equals(WorldTree.DUMMY_NODE_ID)) {
+            if (dummyButton == null) {
+                dummyButton = new DummyNodeButton();
+                addWidget(dummyButton);
+            } else if (dummyButton.node != null) {
+                // The dummy node is replaced when the tree is reloaded
+                boundButtons.remove(dummyButton.node);
             }
-            // Remove extra spacing for last child
-            totalWidth = Math.max(0, totalWidth - HORIZONTAL_SPACING);
-
-            // Subtree width takes max between current node width and children total width
-            node.subtreeWidth = Math.max(node.width, totalWidth);
+            button = dummyButton;
+        } else if (!spareButtons.isEmpty()) {
+            button = spareButtons.remove(spareButtons.size() - 1);
         } else {
-            // Not expanded or no children, subtree width is node's own width
-            node.subtreeWidth = node.width;
+            button = new NodeButton();
+            addWidget(button);
         }
-        return node.subtreeWidth;
+        button.bind(node);
+        boundButtons.put(node, button);
+        return button;
     }
 
-    // Recursively calculate node positions (children symmetric about parent's
-    // vertical center)
-    private void calculateNodePositions(WorldTree.TreeNode node, int x, int y) {
-        // Set node position: x is center minus half node width
-        node.x = x - node.width / 2;
-        node.y = y;
-
-        if (!node.expanded || node.children.isEmpty())
+    // Unbind the button of a node that left the view
+    private void release(NodeButton button) {
+        boundButtons.remove(button.node);
+        button.visible = false;
+        if (button == dummyButton) {
             return;
-
-        // Calculate child nodes' starting Y position
-        int childY = y + node.height + VERTICAL_SPACING;
-
-        // Calculate children total width (including spacing)
-        int childrenTotalWidth = 0;
-        for (WorldTree.TreeNode child : node.children) {
-            childrenTotalWidth += child.subtreeWidth;
-        }
-        if (node.children.size() > 1) {
-            childrenTotalWidth += HORIZONTAL_SPACING * (node.children.size() - 1);
         }
-
-        // Calculate children's starting X position (symmetric about parent's center)
-        int childX = x - childrenTotalWidth / 2;
-
-        // Place each child node
-        for (WorldTree.TreeNode child : node.children) {
-            // Calculate child's center position (children arranged left to right)
-            int childCenterX = childX + child.subtreeWidth / 2;
-
-            // Recursively calculate child position
-            calculateNodePositions(child, childCenterX, childY);
-
-            // Move to next child's start position
-            childX += child.subtreeWidth + HORIZONTAL_SPACING;
+        if (spareButtons.size() < MAX_SPARE_BUTTONS) {
+            spareButtons.add(button);
+        } else {
+            removeWidget(button);
         }
     }
 
-    private void createNodeButtons() {
-        Queue<WorldTree.TreeNode> queue = new java.util.LinkedList<>();
-        queue.add(WorldTree.rootNode);
-
-        while (!queue.isEmpty()) {
-            WorldTree.TreeNode node = queue.poll();
-
-            // Create node button
-            NodeButton button;
-            if (node.id.equals(WorldTree.DUMMY_NODE_ID)) {
-                button = new DummyNodeButton(
-                        0, // Position updated in render
-                        0,
-                        (int) (node.width * zoom),
-                        (int) (node.height * zoom),
-                        node,
-                        btn -> {
-                            // Open add node interface, passing dummy node's parent
-                            Minecraft.getInstance().setScreen(new DummyNodeScreen(node.parent));
-                        });
+    // Draw the connection lines in view, each identified by its child node, as a
+    // single batch
+    private void drawTreeLines(GuiGraphics guiGraphics) {
+        edges.clear();
+        for (WorldTree.TreeNode child : visibleEdges) {
+            WorldTree.TreeNode node = child.parent;
+
+            // Calculate connection points using node centers and bottoms/tops
+            float startX = (float) ((node.getCenterX() - offsetX) * zoom);
+            float startY = (float) ((node.getBottomY() - offsetY) * zoom);
+            float endX = (float) ((child.getCenterX() - offsetX) * zoom);
+            float endY = (float) ((child.getTopY() - offsetY) * zoom);
+
+            int color = node.id.equals(WorldTree.DUMMY_NODE_ID) || child.id.equals(WorldTree.DUMMY_NODE_ID)
+                    ? DUMMY_LINE_COLOR
+                    : LINE_COLOR;
+            if (Config.curvedConnectors) {
+                edges.curve(startX, startY, endX, endY, color);
             } else {
-                button = new NodeButton(
-                        0, // Position updated in render
-                        0,
-                        (int) (node.width * zoom),
-                        (int) (node.height * zoom),
-                        node,
-                        btn -> {
-                            selectedNode = node;
-                            // Open new interface for operation options
-                            Minecraft.getInstance().setScreen(new NodeOperationScreen(node));
-                        });
-            }
-
-            addRenderableWidget(button);
-            nodeButtons.put(node, button);
-
-            // Add children to queue (if expanded)
-            if (node.expanded) {
-                queue.addAll(node.children);
+                edges.line(startX, startY, endX, endY, color);
             }
         }
+        edges.draw(guiGraphics);
     }
 
-    private void drawTreeLines(GuiGraphics guiGraphics) {
-        Queue<WorldTree.TreeNode> queue = new java.util.LinkedList<>();
-        queue.add(WorldTree.rootNode);
-
-        while (!queue.isEmpty()) {
-            WorldTree.TreeNode node = queue.poll();
-
-            // Draw connection lines to children
-            if (node.expanded) {
-                for (WorldTree.TreeNode child : node.children) {
-                    // Calculate connection points using node centers and bottoms/tops
-                    int startX = (int) ((node.getCenterX() - offsetX) * zoom);
-                    int startY = (int) ((node.getBottomY() - offsetY) * zoom);
-                    int endX = (int) ((child.getCenterX() - offsetX) * zoom);
-                    int endY = (int) ((child.getTopY() - offsetY) * zoom);
-
-                    // Draw smooth connection line
-                    drawSmoothLine(guiGraphics, startX, startY, endX, endY,
-                            node.id.equals(WorldTree.DUMMY_NODE_ID) || child.id.equals(WorldTree.DUMMY_NODE_ID)
-                                    ? DUMMY_LINE_COLOR
-                                    : LINE_COLOR);
-                }
-                queue.addAll(node.children);
-            }
+    // Draw the nodes in view as plain blocks, with the number of hidden nodes on
+    // collapsed ones, and each aggregated subtree as one block with its node count
+    private void drawOverview(GuiGraphics guiGraphics) {
+        for (WorldTree.TreeNode node : visibleNodes) {
+            int color = node.id.equals(WorldTree.DUMMY_NODE_ID) ? DUMMY_COLOR
+                    : node.dummyParent ? DUMMY_PARENT_COLOR | 0xFF000000 : OVERVIEW_NODE_COLOR;
+            int count = node.expanded ? 0 : node.subtreeSize - 1;
+            drawBlock(guiGraphics, node.x, node.y, node.x + node.width, node.getBottomY(), color, node, count);
+        }
+        for (WorldTree.TreeNode node : visibleAggregates) {
+            int left = node.getCenterX() - node.subtreeWidth / 2;
+            drawBlock(guiGraphics, left, node.y, left + node.subtreeWidth, TreeLayout.subtreeBottomY(node),
+                    AGGREGATE_COLOR, node, node.subtreeSize);
         }
     }
 
-    // Draw smooth line (with anti-aliasing)
-    private void drawSmoothLine(GuiGraphics guiGraphics, int x1, int y1, int x2, int y2, int color) {
-        // Calculate line direction
-        int dx = Math.abs(x2 - x1);
-        int dy = Math.abs(y2 - y1);
-        int sx = (x1 < x2) ? 1 : -1;
-        int sy = (y1 < y2) ? 1 : -1;
-        int err = dx - dy;
-        int e2;
-
-        // Main color (75% opacity)
-        int mainColor = (color & 0x00FFFFFF) | 0xBF000000; // BF = 75% opacity
-
-        // Auxiliary color (50% opacity)
-        int auxColor = (color & 0x00FFFFFF) | 0x80000000; // 80 = 50% opacity
-
-        while (true) {
-            // Draw main pixel
-            guiGraphics.fill(x1, y1, x1 + 1, y1 + 1, mainColor);
-
-            // Draw auxiliary pixels (anti-aliasing)
-            if (Math.abs(err) * 2 >= dx + dy) {
-                // Horizontal anti-aliasing
-                guiGraphics.fill(x1 + sx, y1, x1 + sx + 1, y1 + 1, auxColor);
-            } else {
-                // Vertical anti-aliasing
-                guiGraphics.fill(x1, y1 + sy, x1 + 1, y1 + sy + 1, auxColor);
+    // Block between layout coordinates, at least a pixel in size, with a count if
+    // positive and if it fits. The count's text is cached on the node it stands for,
+    // as most blocks show the same count frame after frame.
+    private void drawBlock(GuiGraphics guiGraphics, int x1, int y1, int x2, int y2, int color,
+            WorldTree.TreeNode node, int count) {
+        int left = screenX(x1);
+        int top = screenY(y1);
+        int right = Math.max(left + 1, screenX(x2));
+        int bottom = Math.max(top + 1, screenY(y2));
+        guiGraphics.fill(left, top, right, bottom, color);
+        if (count > 0 && bottom - top >= font.lineHeight) {
+            if (node.blockLabel == null || node.blockCount != count) {
+                node.blockCount = count;
+                node.blockLabel = Integer.toString(count);
+                node.blockLabelWidth = font.width(node.blockLabel);
             }
-
-            if (x1 == x2 && y1 == y2)
-                break;
-
-            e2 = 2 * err;
-            if (e2 > -dy) {
-                err -= dy;
-                x1 += sx;
-            }
-            if (e2 < dx) {
-                err += dx;
-                y1 += sy;
+            if (node.blockLabelWidth + 2 <= right - left) {
+                guiGraphics.drawCenteredString(font, node.blockLabel, (left + right) / 2, (top + bottom - 8) / 2,
+                        0xFFFFFF);
             }
         }
     }
 
-    // Custom button class
+    // Custom button class, rebound to whichever node it currently shows
     private class NodeButton extends Button {
-        protected final WorldTree.TreeNode node;
+        protected WorldTree.TreeNode node;
+        int shownFrame; // Last frame the node was in view
+        private int messageWidth; // Width of the node's name
+        private String clippedLabel; // Name clipped to the button, or null if it fits
+        private int labelButtonWidth = -1; // Button width the label was computed for
+
+        public NodeButton() {
+            // Position and size are updated in render
+            super(0, 0, 0, 0, Component.empty(), btn -> ((NodeButton) btn).onNodePressed(), DEFAULT_NARRATION);
+        }
 
-        public NodeButton(int x, int y, int width, int height, WorldTree.TreeNode node, OnPress onPress) {
-            super(x, y, width, height, node.name, onPress, DEFAULT_NARRATION);
+        void bind(WorldTree.TreeNode node) {
             this.node = node;
+            setMessage(node.name);
+            messageWidth = font.width(node.name);
+            labelButtonWidth = -1;
+            // Nodes whose snapshot is still being written cannot be operated on yet
+            active = !node.pending;
+        }
+
+        void onNodePressed() {
+            selectedNode = node;
+            // Open new interface for operation options
+            Minecraft.getInstance().setScreen(new NodeOperationScreen(node));
         }
 
         @SuppressWarnings("null")
@@ -369,14 +469,7 @@ class WorldTreeScreen extends net.minecraft.client.gui.screens.Screen {
             // Check in real time if current node is selected
             boolean isSelected = (this.node == WorldTreeScreen.this.selectedNode);
 
-            // Check if current node is parent of dummy node
-            boolean isDummyParent = false;
-            for (WorldTree.TreeNode child : node.children) {
-                if (child.id.equals(WorldTree.DUMMY_NODE_ID)) {
-                    isDummyParent = true;
-                    break;
-                }
-            }
+            boolean isDummyParent = node.dummyParent;
 
             int bgColor;
             int borderColor;
@@ -397,27 +490,16 @@ class WorldTreeScreen extends net.minecraft.client.gui.screens.Screen {
             // Draw button border
             guiGraphics.renderOutline(getX(), getY(), width, height, borderColor);
 
-            // Calculate text position (consider padding)
-            int textX = getX() + node.padding;
-            int textWidth = font.width(getMessage());
+            // Draw button text, reserving space for the expand/collapse marker if
+            // needed, greyed out while pending
             int availableWidth = width - node.padding * 2;
-
-            // Reserve space for expand/collapse marker if needed
-            if (!node.children.isEmpty()) {
+            if (node.hasChildren()) {
                 availableWidth -= 15;
             }
-
-            // Draw button text (add ellipsis if too long)
-            if (textWidth > availableWidth) {
-                String text = getMessage().getString();
-                String clipped = font.plainSubstrByWidth(text, availableWidth - 4) + "...";
-                guiGraphics.drawString(font, clipped, textX, getY() + (height - 8) / 2, 0xFFFFFF);
-            } else {
-                guiGraphics.drawString(font, getMessage(), textX, getY() + (height - 8) / 2, 0xFFFFFF);
-            }
+            drawLabel(guiGraphics, availableWidth, node.pending ? 0xA0A0A0 : 0xFFFFFF);
 
             // Draw expand/collapse marker if node has children
-            if (!node.children.isEmpty()) {
+            if (node.hasChildren()) {
                 int markerX = getX() + width - 15;
                 int markerY = getY() + height / 2;
                 int markerSize = 4;
@@ -450,12 +532,32 @@ class WorldTreeScreen extends net.minecraft.client.gui.screens.Screen {
                         0xFFFFA500);
             }
         }
+
+        // Draw the name at the left padding, with an ellipsis if too long. The
+        // clipped text only changes with the button width, that is with the zoom.
+        protected void drawLabel(GuiGraphics guiGraphics, int availableWidth, int color) {
+            if (width != labelButtonWidth) {
+                labelButtonWidth = width;
+                clippedLabel = messageWidth > availableWidth
+                        ? font.plainSubstrByWidth(getMessage().getString(), availableWidth - 4) + "..."
+                        : null;
+            }
+            int textX = getX() + node.padding;
+            int textY = getY() + (height - 8) / 2;
+            if (clippedLabel != null) {
+                guiGraphics.drawString(font, clippedLabel, textX, textY, color);
+            } else {
+                guiGraphics.drawString(font, getMessage(), textX, textY, color);
+            }
+        }
     }
 
     // Dummy node button (subclass of NodeButton)
     private class DummyNodeButton extends NodeButton {
-        public DummyNodeButton(int x, int y, int width, int height, WorldTree.TreeNode node, OnPress onPress) {
-            super(x, y, width, height, node, onPress);
+        @Override
+        void onNodePressed() {
+            // Open add node interface, passing dummy node's parent
+            Minecraft.getInstance().setScreen(new DummyNodeScreen(node.parent));
         }
 
         @Override
@@ -487,19 +589,7 @@ class WorldTreeScreen extends net.minecraft.client.gui.screens.Screen {
             guiGraphics.fill(getX(), getY(), getX() + width, getY() + height, bgColor);
 
             // Use same text rendering as normal nodes
-            // Calculate text position (consider padding)
-            int textX = getX() + node.padding;
-            int textWidth = font.width(getMessage());
-            int availableWidth = width - node.padding * 2;
-
-            // Draw button text (add ellipsis if too long)
-            if (textWidth > availableWidth) {
-                String text = getMessage().getString();
-                String clipped = font.plainSubstrByWidth(text, availableWidth - 4) + "...";
-                guiGraphics.drawString(font, clipped, textX, getY() + (height - 8) / 2, 0xFFFFFF);
-            } else {
-                guiGraphics.drawString(font, getMessage(), textX, getY() + (height - 8) / 2, 0xFFFFFF);
-            }
+            drawLabel(guiGraphics, width - node.padding * 2, 0xFFFFFF);
         }
     }
 }
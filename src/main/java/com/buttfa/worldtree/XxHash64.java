@@ -0,0 +1,124 @@
+package com.buttfa.worldtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// XXH64 with seed 0, the 64-bit xxHash of Yann Collet. Not collision resistant like
+// the SHA-256 the snapshot store is keyed by, but several times faster, which is
+// what telling changed files from unchanged ones needs; see FingerprintCache.
+final class XxHash64 {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+    private static final int BUFFER_SIZE = 256 * 1024; // A multiple of STRIPE
+
+    private long v1 = PRIME1 + PRIME2;
+    private long v2 = PRIME2;
+    private long v3 = 0;
+    private long v4 = -PRIME1;
+    private long total;
+    private final ByteBuffer tail = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Hash the content of a file
+    static long hash(Path file) throws IOException {
+        XxHash64 hash = new XxHash64();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                hash.update(buffer);
+                buffer.clear();
+            }
+        }
+        return hash.digest();
+    }
+
+    static long hash(byte[] data) {
+        XxHash64 hash = new XxHash64();
+        hash.update(ByteBuffer.wrap(data));
+        return hash.digest();
+    }
+
+    // Hash the remaining bytes of data, consuming them
+    void update(ByteBuffer data) {
+        ByteOrder order = data.order();
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        total += data.remaining();
+        if (tail.position() > 0) {
+            while (tail.hasRemaining() && data.hasRemaining()) {
+                tail.put(data.get());
+            }
+            if (tail.hasRemaining()) {
+                data.order(order);
+                return;
+            }
+            tail.flip();
+            stripe(tail);
+            tail.clear();
+        }
+        while (data.remaining() >= STRIPE) {
+            stripe(data);
+        }
+        tail.put(data);
+        data.order(order);
+    }
+
+    // The hash of everything passed to update; call once
+    long digest() {
+        long hash;
+        if (total >= STRIPE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+                    + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        } else {
+            hash = PRIME5;
+        }
+        hash += total;
+
+        tail.flip();
+        while (tail.remaining() >= 8) {
+            hash ^= round(0, tail.getLong());
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        if (tail.remaining() >= 4) {
+            hash ^= (tail.getInt() & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+        }
+        while (tail.hasRemaining()) {
+            hash ^= (tail.get() & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private void stripe(ByteBuffer data) {
+        v1 = round(v1, data.getLong());
+        v2 = round(v2, data.getLong());
+        v3 = round(v3, data.getLong());
+        v4 = round(v4, data.getLong());
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long merge(long hash, long acc) {
+        return (hash ^ round(0, acc)) * PRIME1 + PRIME4;
+    }
+}
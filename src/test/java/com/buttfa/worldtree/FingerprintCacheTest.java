@@ -0,0 +1,94 @@
+package com.buttfa.worldtree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class FingerprintCacheTest {
+    private static final FileTime TIME = FileTime.fromMillis(1_700_000_000_000L);
+
+    @TempDir
+    Path treeDir;
+    @TempDir
+    Path world;
+
+    @Test
+    void roundTripsThroughSave() throws IOException {
+        Path file = write("level.dat", "first");
+        FingerprintCache cache = FingerprintCache.load(treeDir);
+        long hash = cache.fingerprint(file, "level.dat", attributes(file));
+        assertEquals(XxHash64.hash(file), hash);
+        cache.save();
+
+        // Same size and time with other content: the saved entry is trusted
+        write("level.dat", "other");
+        FingerprintCache loaded = FingerprintCache.load(treeDir);
+        assertEquals(hash, loaded.fingerprint(file, "level.dat", attributes(file)));
+    }
+
+    @Test
+    void rehashesWhenModified() throws IOException {
+        Path file = write("level.dat", "first");
+        FingerprintCache cache = FingerprintCache.load(treeDir);
+        long hash = cache.fingerprint(file, "level.dat", attributes(file));
+
+        Files.writeString(file, "other");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(TIME.toMillis() + 1000));
+        long changed = cache.fingerprint(file, "level.dat", attributes(file));
+        assertNotEquals(hash, changed);
+        assertEquals(XxHash64.hash(file), changed);
+    }
+
+    @Test
+    void startsOverFromTruncatedFile() throws IOException {
+        Path file = write("level.dat", "first");
+        FingerprintCache cache = FingerprintCache.load(treeDir);
+        cache.put("level.dat", 5, TIME.toMillis(), 42);
+        cache.put("stats/player.json", 10, TIME.toMillis(), 43);
+        cache.save();
+
+        Path saved = treeDir.resolve(FingerprintCache.FILE);
+        byte[] bytes = Files.readAllBytes(saved);
+        Files.write(saved, Arrays.copyOf(bytes, bytes.length - 5));
+
+        // The bogus entry is gone, so the file is hashed again
+        FingerprintCache loaded = FingerprintCache.load(treeDir);
+        assertEquals(XxHash64.hash(file), loaded.fingerprint(file, "level.dat", attributes(file)));
+    }
+
+    @Test
+    void forgetsRemovedFiles() throws IOException {
+        Path file = write("level.dat", "first");
+        FingerprintCache cache = FingerprintCache.load(treeDir);
+        cache.put("level.dat", 5, TIME.toMillis(), 42);
+        cache.put("gone.dat", 5, TIME.toMillis(), 43);
+        cache.retain(List.of("level.dat"));
+        cache.save();
+
+        FingerprintCache loaded = FingerprintCache.load(treeDir);
+        assertEquals(42, loaded.fingerprint(file, "level.dat", attributes(file)));
+        Path gone = write("gone.dat", "fresh");
+        assertEquals(XxHash64.hash(gone), loaded.fingerprint(gone, "gone.dat", attributes(gone)));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = world.resolve(name);
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, TIME);
+        return file;
+    }
+
+    private static BasicFileAttributes attributes(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+}
@@ -0,0 +1,182 @@
+package com.buttfa.worldtree;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotStoreTest {
+    private static final int TIMESTAMP = 1_700_000_000;
+    private static final FileTime TIME = FileTime.fromMillis(TIMESTAMP * 1000L);
+
+    @TempDir
+    Path treeDir;
+    @TempDir
+    Path world;
+
+    private SnapshotStore store;
+
+    // level.dat, a player file, an empty directory and a region file of three chunks
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new SnapshotStore(treeDir);
+        write("level.dat", "level");
+        write("playerdata/player.dat", "player");
+        Files.createDirectories(world.resolve("datapacks"));
+        Files.createDirectories(world.resolve("region"));
+        writeRegion(world.resolve("region/r.0.0.mca"), "first chunk", "other chunk", "third chunk");
+    }
+
+    @Test
+    void restoresCapturedWorld() throws IOException {
+        store.capture(world, "node", null, null, size -> { });
+        Path restored = treeDir.resolve("restored");
+        store.restore("node", restored, size -> { });
+
+        assertEquals(contents(world), contents(restored));
+        assertTrue(Files.isDirectory(restored.resolve("datapacks")));
+        assertEquals(Files.getLastModifiedTime(world.resolve("level.dat")),
+                Files.getLastModifiedTime(restored.resolve("level.dat")));
+        assertEquals(new FileUtils.Usage(Files.size(world.resolve("level.dat"))
+                + Files.size(world.resolve("playerdata/player.dat"))
+                + Files.size(world.resolve("region/r.0.0.mca")), 3), store.usageOf("node"));
+    }
+
+    @Test
+    void sharesUnchangedBlobsWithParent() throws IOException {
+        store.capture(world, "parent", null, null, size -> { });
+        Set<Path> parentBlobs = blobs();
+
+        write("level.dat", "changed level");
+        writeRegion(world.resolve("region/r.0.0.mca"), "first chunk", "fresh chunk", "third chunk");
+        store.capture(world, "child", "parent", null, size -> { });
+
+        SnapshotStore.Manifest parent = store.readManifest("parent");
+        SnapshotStore.Manifest child = store.readManifest("child");
+        assertEquals(parent.files.get("playerdata/player.dat").blob, child.files.get("playerdata/player.dat").blob);
+        assertNotEquals(parent.files.get("level.dat").blob, child.files.get("level.dat").blob);
+        assertTrue(child.files.get("region/r.0.0.mca").region);
+
+        // Only the new level.dat, the rewritten chunk and the new region index
+        Set<Path> added = blobs();
+        added.removeAll(parentBlobs);
+        assertEquals(3, added.size());
+
+        Path restored = treeDir.resolve("restored");
+        store.restore("child", restored, size -> { });
+        assertEquals(contents(world), contents(restored));
+    }
+
+    @Test
+    void storesMalformedRegionsWhole() throws IOException {
+        write("region/r.1.0.mca", "not a region file");
+        Files.write(world.resolve("region/r.2.0.mca"), new byte[0]);
+        store.capture(world, "node", null, null, size -> { });
+
+        SnapshotStore.Manifest manifest = store.readManifest("node");
+        assertFalse(manifest.files.get("region/r.1.0.mca").region);
+        assertFalse(manifest.files.get("region/r.2.0.mca").region);
+        assertTrue(manifest.files.get("region/r.0.0.mca").region);
+
+        Path restored = treeDir.resolve("restored");
+        store.restore("node", restored, size -> { });
+        assertEquals(contents(world), contents(restored));
+    }
+
+    @Test
+    void findsBlobsOfDeletedManifests() throws IOException {
+        store.capture(world, "parent", null, null, size -> { });
+        Set<Path> parentBlobs = blobs();
+        write("level.dat", "changed level");
+        writeRegion(world.resolve("region/r.0.0.mca"), "first chunk", "fresh chunk", "third chunk");
+        store.capture(world, "child", "parent", null, size -> { });
+        assertTrue(store.unreferencedBlobs().isEmpty());
+
+        Set<Path> childBlobs = blobs();
+        childBlobs.removeAll(parentBlobs);
+        store.deleteManifest("child");
+        assertEquals(childBlobs, new HashSet<>(store.unreferencedBlobs()));
+
+        // The parent still restores without them, chunk blobs included
+        for (Path blob : childBlobs) {
+            Files.delete(blob);
+        }
+        store.restore("parent", treeDir.resolve("restored"), size -> { });
+        assertEquals("level", Files.readString(treeDir.resolve("restored/level.dat")));
+        assertTrue(store.unreferencedBlobs().isEmpty());
+    }
+
+    @Test
+    void capturesChunkRewrittenWithSameTimestampAndLength() throws IOException {
+        Path region = world.resolve("region/r.0.0.mca");
+        writeRegion(region, "first chunk", "other chunk");
+        byte[] first = Files.readAllBytes(region);
+        store.capture(world, "parent", null, null, size -> { });
+
+        // Saved again within the same second, to a payload of the same length
+        writeRegion(region, "fresh chunk", "other chunk");
+        byte[] fresh = Files.readAllBytes(region);
+        store.capture(world, "child", "parent", null, size -> { });
+
+        store.restore("parent", treeDir.resolve("parent"), size -> { });
+        store.restore("child", treeDir.resolve("child"), size -> { });
+        assertArrayEquals(first, Files.readAllBytes(treeDir.resolve("parent/region/r.0.0.mca")));
+        assertArrayEquals(fresh, Files.readAllBytes(treeDir.resolve("child/region/r.0.0.mca")));
+    }
+
+    private void write(String name, String content) throws IOException {
+        Path file = world.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, TIME);
+    }
+
+    // A region file with the given chunks in the first slots, all with the same timestamp
+    private static void writeRegion(Path file, String... chunks) throws IOException {
+        int[] timestamps = new int[AnvilRegion.CHUNK_COUNT];
+        Arrays.fill(timestamps, 0, chunks.length, TIMESTAMP);
+        AnvilRegion.write(file, timestamps, i -> i < chunks.length ? payload(chunks[i]) : null);
+    }
+
+    // Length prefix, compression type and data as stored in a region file
+    private static byte[] payload(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(5 + bytes.length).putInt(1 + bytes.length).put((byte) 3).put(bytes).array();
+    }
+
+    private Set<Path> blobs() throws IOException {
+        try (Stream<Path> files = Files.walk(treeDir.resolve("store/blobs"))) {
+            return new HashSet<>(files.filter(Files::isRegularFile).toList());
+        }
+    }
+
+    // Every file under dir by relative name, with its content
+    private static Map<String, String> contents(Path dir) throws IOException {
+        Map<String, String> contents = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                contents.put(dir.relativize(file).toString().replace('\\', '/'),
+                        Arrays.toString(Files.readAllBytes(file)));
+            }
+        }
+        return contents;
+    }
+}
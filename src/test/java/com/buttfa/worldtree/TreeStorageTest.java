@@ -0,0 +1,322 @@
+package com.buttfa.worldtree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TreeStorageTest {
+    private static final SnapshotCollector.Tombstone TOMBSTONE =
+            new SnapshotCollector.Tombstone("old", SnapshotFormat.DEDUP);
+    private static final long JOURNAL_HEADER_SIZE = 12; // Magic and generation
+
+    @TempDir
+    Path treeDir;
+
+    private final Map<String, WorldTree.TreeNode> nodes = new HashMap<>();
+    private final List<SnapshotCollector.Tombstone> trash = new ArrayList<>();
+
+    @Test
+    void emptyDirectoryHasNoTree() throws IOException {
+        assertNull(new TreeStorage(treeDir).load(nodes, trash));
+    }
+
+    @Test
+    void roundTripsThroughSnapshot() throws IOException {
+        WorldTree.TreeNode root = sampleTree();
+        WorldTree.TreeNode b = nodes.get("b");
+        b.folderName = "b-folder";
+        b.format = SnapshotFormat.PACKED;
+        b.timestamp = 1234;
+        b.auto = true;
+        trash.add(TOMBSTONE);
+        new TreeStorage(treeDir).write(root, trash);
+
+        Loaded loaded = reopen();
+        assertEquals("root(a(b c) d +)", shape(loaded.root));
+        WorldTree.TreeNode read = loaded.nodes.get("b");
+        assertEquals("b-folder", read.folderName);
+        assertEquals(SnapshotFormat.PACKED, read.format);
+        assertEquals(1234, read.timestamp);
+        assertTrue(read.auto);
+        assertSame(loaded.nodes.get("a"), read.parent);
+        assertEquals(List.of(TOMBSTONE), loaded.trash);
+    }
+
+    @Test
+    void replaysJournalEdits() throws IOException {
+        WorldTree.TreeNode root = sampleTree();
+        TreeStorage storage = new TreeStorage(treeDir);
+        storage.write(root, trash);
+
+        // Edits are made in memory and journaled, as WorldTree does
+        WorldTree.TreeNode e = node("e");
+        nodes.get("b").addChild(e);
+        WorldTree.TreeNode a = nodes.get("a");
+        TreeStorage.splice(a);
+        trash.add(TOMBSTONE);
+        storage.edit().add(e).splice("a").trash(TOMBSTONE).commit();
+        storage.edit().move(moveToEnd(nodes.get("d"))).commit();
+        assertEquals("root(b(e) c + d)", shape(root));
+
+        Loaded loaded = reopen();
+        assertEquals("root(b(e) c + d)", shape(loaded.root));
+        assertFalse(loaded.nodes.containsKey("a"));
+        assertSame(loaded.nodes.get("b"), loaded.nodes.get("e").parent);
+        assertEquals(List.of(TOMBSTONE), loaded.trash);
+
+        // The journal was folded into the snapshot on load
+        assertEquals(JOURNAL_HEADER_SIZE, Files.size(treeDir.resolve(TreeStorage.JOURNAL_FILE)));
+        assertEquals("root(b(e) c + d)", shape(reopen().root));
+    }
+
+    @Test
+    void replaysRemovalAndReclaim() throws IOException {
+        WorldTree.TreeNode root = sampleTree();
+        trash.add(TOMBSTONE);
+        TreeStorage storage = new TreeStorage(treeDir);
+        storage.write(root, trash);
+
+        // The dummy node survives the removal of its subtree
+        WorldTree.TreeNode dummy = nodes.get(WorldTree.DUMMY_NODE_ID);
+        root.children.remove(dummy);
+        nodes.get("b").addChild(dummy);
+        storage.edit().move(dummy).commit();
+        storage.edit().remove("a").reclaim(TOMBSTONE).commit();
+
+        Loaded loaded = reopen();
+        assertEquals("root(d +)", shape(loaded.root));
+        assertFalse(loaded.nodes.containsKey("b"));
+        assertTrue(loaded.trash.isEmpty());
+    }
+
+    @Test
+    void compactsLongJournals() throws IOException {
+        WorldTree.TreeNode root = sampleTree();
+        TreeStorage storage = new TreeStorage(treeDir);
+        storage.write(root, trash);
+
+        WorldTree.TreeNode d = nodes.get("d");
+        for (int i = 0; i < 300; i++) {
+            WorldTree.TreeNode child = node("n" + i);
+            d.addChild(child);
+            storage.edit().add(child).commit();
+        }
+        assertTrue(storage.needsCompaction());
+        storage.compact(root, trash, nodes);
+        assertFalse(storage.needsCompaction());
+        assertEquals(JOURNAL_HEADER_SIZE, Files.size(treeDir.resolve(TreeStorage.JOURNAL_FILE)));
+
+        Loaded loaded = reopen();
+        assertEquals(300, loaded.nodes.get("d").children.size());
+        assertEquals("n299", loaded.nodes.get("d").children.get(299).id);
+    }
+
+    @Test
+    void dropsTornTailRecord() throws IOException {
+        Path journal = journalWithTwoAdds();
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        Loaded loaded = reopen();
+        assertTrue(loaded.nodes.containsKey("x"));
+        assertFalse(loaded.nodes.containsKey("y"));
+        assertEquals("root(a(b c) d(x) +)", shape(loaded.root));
+    }
+
+    @Test
+    void dropsTailRecordWithBadChecksum() throws IOException {
+        Path journal = journalWithTwoAdds();
+        byte[] bytes = Files.readAllBytes(journal);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(journal, bytes);
+
+        Loaded loaded = reopen();
+        assertTrue(loaded.nodes.containsKey("x"));
+        assertFalse(loaded.nodes.containsKey("y"));
+        // Nothing after the damaged record is kept either
+        assertEquals(JOURNAL_HEADER_SIZE, Files.size(journal));
+        assertEquals("root(a(b c) d(x) +)", shape(reopen().root));
+    }
+
+    @Test
+    void stubsCollapsedSubtrees() throws IOException {
+        WorldTree.TreeNode root = sampleTree();
+        nodes.get("a").expanded = false;
+        new TreeStorage(treeDir).write(root, trash);
+
+        Loaded loaded = reopen();
+        WorldTree.TreeNode a = loaded.nodes.get("a");
+        assertNotNull(a.stub);
+        assertTrue(a.children.isEmpty());
+        assertTrue(a.hasChildren());
+        assertFalse(loaded.nodes.containsKey("b"));
+
+        loaded.storage.loadChildren(a, loaded.nodes, true);
+        assertNull(a.stub);
+        assertEquals("root(a(b c) d +)", shape(loaded.root));
+        assertSame(a, loaded.nodes.get("b").parent);
+    }
+
+    @Test
+    void loadsNestedStubsOneLevelAtATime() throws IOException {
+        WorldTree.TreeNode root = sampleTree();
+        nodes.get("a").expanded = false;
+        nodes.get("b").expanded = false;
+        nodes.get("b").addChild(node("e"));
+        new TreeStorage(treeDir).write(root, trash);
+
+        Loaded loaded = reopen();
+        WorldTree.TreeNode a = loaded.nodes.get("a");
+        loaded.storage.loadChildren(a, loaded.nodes, true);
+        WorldTree.TreeNode b = loaded.nodes.get("b");
+        assertNotNull(b.stub);
+        assertFalse(loaded.nodes.containsKey("e"));
+
+        loaded.storage.loadSubtree(loaded.root, loaded.nodes);
+        assertNull(b.stub);
+        assertEquals("root(a(b(e) c) d +)", shape(loaded.root));
+    }
+
+    @Test
+    void keepsSubtreeHoldingDummyLoaded() throws IOException {
+        WorldTree.TreeNode root = sampleTree();
+        WorldTree.TreeNode dummy = nodes.get(WorldTree.DUMMY_NODE_ID);
+        root.children.remove(dummy);
+        nodes.get("a").addChild(dummy);
+        nodes.get("a").expanded = false;
+        new TreeStorage(treeDir).write(root, trash);
+
+        Loaded loaded = reopen();
+        assertNull(loaded.nodes.get("a").stub);
+        assertEquals("root(a(b c +) d)", shape(loaded.root));
+    }
+
+    @Test
+    void stubsFollowRewrittenSnapshots() throws IOException {
+        WorldTree.TreeNode root = sampleTree();
+        nodes.get("a").expanded = false;
+        new TreeStorage(treeDir).write(root, trash);
+
+        // Rewriting moves the stubbed records; the stub must point at the new ones
+        Loaded loaded = reopen();
+        WorldTree.TreeNode x = new WorldTree.TreeNode("x", "x");
+        x.folderName = "x";
+        x.format = SnapshotFormat.COPY;
+        loaded.root.children.add(0, x);
+        x.parent = loaded.root;
+        loaded.nodes.put("x", x);
+        loaded.storage.write(loaded.root, loaded.trash);
+        loaded.storage.write(loaded.root, loaded.trash);
+
+        WorldTree.TreeNode a = loaded.nodes.get("a");
+        assertNotNull(a.stub);
+        loaded.storage.loadChildren(a, loaded.nodes, true);
+        assertEquals("root(x a(b c) d +)", shape(loaded.root));
+        assertEquals("root(x a(b c) d +)", shape(loadAll(reopen())));
+    }
+
+    @Test
+    void compactUnloadsCollapsedSubtrees() throws IOException {
+        WorldTree.TreeNode root = sampleTree();
+        nodes.get("a").expanded = false;
+        new TreeStorage(treeDir).write(root, trash);
+
+        Loaded loaded = reopen();
+        loaded.storage.loadSubtree(loaded.root, loaded.nodes);
+        assertTrue(loaded.nodes.containsKey("b"));
+        loaded.storage.compact(loaded.root, loaded.trash, loaded.nodes);
+
+        WorldTree.TreeNode a = loaded.nodes.get("a");
+        assertNotNull(a.stub);
+        assertTrue(a.children.isEmpty());
+        assertFalse(loaded.nodes.containsKey("b"));
+        loaded.storage.loadChildren(a, loaded.nodes, true);
+        assertEquals("root(a(b c) d +)", shape(loaded.root));
+    }
+
+    // root(a(b c) d +), all expanded, with the dummy node last
+    private WorldTree.TreeNode sampleTree() {
+        WorldTree.TreeNode root = node("root");
+        WorldTree.TreeNode a = node("a");
+        root.addChild(a);
+        a.addChild(node("b"));
+        a.addChild(node("c"));
+        root.addChild(node("d"));
+        root.addChild(node(WorldTree.DUMMY_NODE_ID));
+        return root;
+    }
+
+    private WorldTree.TreeNode node(String id) {
+        WorldTree.TreeNode node = new WorldTree.TreeNode(id, id);
+        node.folderName = id;
+        node.format = SnapshotFormat.COPY;
+        nodes.put(id, node);
+        return node;
+    }
+
+    private static WorldTree.TreeNode moveToEnd(WorldTree.TreeNode node) {
+        node.parent.children.remove(node);
+        node.parent.children.add(node);
+        return node;
+    }
+
+    private Path journalWithTwoAdds() throws IOException {
+        WorldTree.TreeNode root = sampleTree();
+        TreeStorage storage = new TreeStorage(treeDir);
+        storage.write(root, trash);
+        WorldTree.TreeNode x = node("x");
+        nodes.get("d").addChild(x);
+        storage.edit().add(x).commit();
+        WorldTree.TreeNode y = node("y");
+        nodes.get("d").addChild(y);
+        storage.edit().add(y).commit();
+        return treeDir.resolve(TreeStorage.JOURNAL_FILE);
+    }
+
+    private record Loaded(TreeStorage storage, WorldTree.TreeNode root, Map<String, WorldTree.TreeNode> nodes,
+            List<SnapshotCollector.Tombstone> trash) {
+    }
+
+    private Loaded reopen() throws IOException {
+        Map<String, WorldTree.TreeNode> loadedNodes = new HashMap<>();
+        List<SnapshotCollector.Tombstone> loadedTrash = new ArrayList<>();
+        TreeStorage storage = new TreeStorage(treeDir);
+        WorldTree.TreeNode root = storage.load(loadedNodes, loadedTrash);
+        return new Loaded(storage, root, loadedNodes, loadedTrash);
+    }
+
+    private static WorldTree.TreeNode loadAll(Loaded loaded) throws IOException {
+        loaded.storage.loadSubtree(loaded.root, loaded.nodes);
+        return loaded.root;
+    }
+
+    // The tree as "id(child child)", with the dummy node as "+"
+    private static String shape(WorldTree.TreeNode node) {
+        StringBuilder out = new StringBuilder(node.id.equals(WorldTree.DUMMY_NODE_ID) ? "+" : node.id);
+        if (!node.children.isEmpty()) {
+            out.append('(');
+            for (int i = 0; i < node.children.size(); i++) {
+                out.append(i > 0 ? " " : "").append(shape(node.children.get(i)));
+            }
+            out.append(')');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.buttfa.worldtree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TreeViewportTest {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+
+    private final List<WorldTree.TreeNode> all = new ArrayList<>();
+
+    // Every node in view is found, wherever the view is, including below shallow
+    // subtrees that are skipped
+    @Test
+    void collectsExactlyTheVisibleNodes() {
+        WorldTree.TreeNode root = randomTree(2000, new Random(3));
+        new TreeLayout(text -> text.length() * 6).layout(root);
+        TreeLayout.placeRoot(root, 0, 0);
+        placeAll(root);
+
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = 0;
+        for (WorldTree.TreeNode node : all) {
+            minX = Math.min(minX, node.x);
+            maxX = Math.max(maxX, node.x + node.width);
+            maxY = Math.max(maxY, node.getBottomY());
+        }
+
+        TreeViewport viewport = new TreeViewport();
+        Random random = new Random(4);
+        for (int i = 0; i < 200; i++) {
+            int left = minX + random.nextInt(maxX - minX);
+            int top = random.nextInt(maxY);
+            viewport.set(left, top, 1, WIDTH, HEIGHT, false);
+            List<WorldTree.TreeNode> nodes = new ArrayList<>();
+            viewport.collect(root, nodes, new ArrayList<>(), new ArrayList<>());
+
+            Set<WorldTree.TreeNode> found = new HashSet<>(nodes);
+            assertEquals(nodes.size(), found.size());
+            for (WorldTree.TreeNode node : all) {
+                boolean visible = node.x + node.width >= left && node.x <= left + WIDTH
+                        && node.getBottomY() >= top && node.getTopY() <= top + HEIGHT;
+                if (visible) {
+                    assertTrue(found.contains(node), "missing " + node.id);
+                }
+            }
+            // Nothing far outside the view, up to the rounding slack
+            for (WorldTree.TreeNode node : nodes) {
+                assertTrue(node.getBottomY() >= top - 2 && node.getTopY() <= top + HEIGHT + 2, node.id);
+            }
+        }
+    }
+
+    // Chains of varying depth under nodes with varying fan-out
+    private WorldTree.TreeNode randomTree(int size, Random random) {
+        WorldTree.TreeNode root = node("root");
+        List<WorldTree.TreeNode> parents = new ArrayList<>(List.of(root));
+        while (all.size() < size) {
+            WorldTree.TreeNode parent = parents.get(random.nextInt(parents.size()));
+            WorldTree.TreeNode child = node("n" + all.size());
+            parent.addChild(child);
+            parents.add(child);
+            if (random.nextInt(4) == 0) {
+                // Deepen the newest branch
+                parents.add(child);
+            }
+        }
+        return root;
+    }
+
+    private WorldTree.TreeNode node(String id) {
+        WorldTree.TreeNode node = new WorldTree.TreeNode(id, id);
+        all.add(node);
+        return node;
+    }
+
+    private static void placeAll(WorldTree.TreeNode node) {
+        for (WorldTree.TreeNode child : node.children) {
+            TreeLayout.place(child);
+            placeAll(child);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.buttfa.worldtree;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorldSwitchTest {
+    @TempDir
+    Path treeDir;
+    @TempDir
+    Path world;
+
+    private Path patch;
+
+    // A world to be patched into level.dat and region/r.0.0.mca replaced, new/n.dat
+    // added and stale.dat and the old directory removed
+    @BeforeEach
+    void setUp() throws IOException {
+        write(world, "level.dat", "old level");
+        write(world, "region/r.0.0.mca", "old region");
+        write(world, "stale.dat", "stale");
+        write(world, "old/x.dat", "x");
+
+        patch = treeDir.resolve(WorldSwitch.PATCH_DIR);
+        write(patch, "level.dat", "new level");
+        write(patch, "region/r.0.0.mca", "new region");
+        write(patch, "new/n.dat", "n");
+        Files.write(patch.resolve(WorldSwitch.PLAN_FILE), List.of("+new", "-stale.dat", "-old/x.dat", "-old"));
+    }
+
+    @Test
+    void appliesPatch() throws IOException {
+        assertTrue(WorldSwitch.isPatch(patch));
+        WorldSwitch.apply(patch, world);
+        assertPatched();
+    }
+
+    @Test
+    void completesPatchInterruptedWhileMovingFiles() throws IOException {
+        // As left by a crash after the first file was moved in
+        Files.createDirectories(world.resolve("new"));
+        Files.move(patch.resolve("level.dat"), world.resolve("level.dat"),
+                StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(WorldSwitch.isPatch(patch));
+
+        WorldSwitch.apply(patch, world);
+        assertPatched();
+    }
+
+    @Test
+    void completesPatchWhenAppliedAgain() throws IOException {
+        // A directory in the way of a file makes the first attempt fail midway
+        Files.delete(world.resolve("region/r.0.0.mca"));
+        write(world, "region/r.0.0.mca/blocker", "");
+        assertThrows(IOException.class, () -> WorldSwitch.apply(patch, world));
+        assertTrue(WorldSwitch.isPatch(patch));
+
+        FileUtils.deleteDirectory(world.resolve("region/r.0.0.mca"));
+        WorldSwitch.apply(patch, world);
+        assertPatched();
+    }
+
+    private void assertPatched() throws IOException {
+        assertEquals("new level", Files.readString(world.resolve("level.dat")));
+        assertEquals("new region", Files.readString(world.resolve("region/r.0.0.mca")));
+        assertEquals("n", Files.readString(world.resolve("new/n.dat")));
+        assertFalse(Files.exists(world.resolve("stale.dat")));
+        assertFalse(Files.exists(world.resolve("old")));
+        assertFalse(Files.exists(patch));
+    }
+
+    private static void write(Path root, String name, String content) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+}
@@ -0,0 +1,66 @@
+package com.buttfa.worldtree;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class XxHash64Test {
+    @TempDir
+    Path dir;
+
+    // Reference values of XXH64 with seed 0
+    @Test
+    void matchesReferenceVectors() {
+        assertEquals(0xEF46DB3751D8E999L, hash(""));
+        assertEquals(0xD24EC4F1A98C6E5BL, hash("a"));
+        assertEquals(0x44BC2CF5AD770999L, hash("abc"));
+        // Longer than a 32 byte stripe
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    void splitUpdatesMatchOneUpdate() {
+        byte[] data = randomBytes(100_003);
+        XxHash64 whole = new XxHash64();
+        whole.update(ByteBuffer.wrap(data));
+
+        XxHash64 parts = new XxHash64();
+        Random random = new Random(2);
+        for (int position = 0; position < data.length;) {
+            int length = Math.min(data.length - position, random.nextInt(70));
+            parts.update(ByteBuffer.wrap(data, position, length));
+            position += length;
+        }
+        assertEquals(whole.digest(), parts.digest());
+    }
+
+    @Test
+    void hashesFilesLikeBuffers() throws IOException {
+        byte[] data = randomBytes(600_000); // Several read buffers
+        Path file = dir.resolve("data");
+        Files.write(file, data);
+        XxHash64 hash = new XxHash64();
+        hash.update(ByteBuffer.wrap(data));
+        assertEquals(hash.digest(), XxHash64.hash(file));
+    }
+
+    private static long hash(String text) {
+        XxHash64 hash = new XxHash64();
+        hash.update(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+        return hash.digest();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(1).nextBytes(data);
+        return data;
+    }
+}